@@ -0,0 +1,84 @@
+package com.lifejourney.racingfever;
+
+import android.os.Build;
+import android.os.Debug;
+import android.util.Log;
+
+import androidx.test.platform.app.InstrumentationRegistry;
+
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * Helpers shared by benchmarks
+ */
+class BenchmarkUtils {
+
+    private static final String LOG_TAG = "Benchmark";
+
+    /**
+     *
+     * @param mapAsset
+     * @return
+     */
+    static TrackData loadTrackData(String mapAsset) {
+        try {
+            InputStream stream = InstrumentationRegistry.getInstrumentation().getTargetContext()
+                    .getAssets().open(mapAsset);
+            try {
+                return new TrackData(mapAsset, stream);
+            }
+            finally {
+                stream.close();
+            }
+        }
+        catch (IOException e) {
+            throw new IllegalStateException("Failed to open map: " + mapAsset, e);
+        }
+    }
+
+    /**
+     * Bytes allocated by runtime so far. It returns -1 if it's not supported on this device.
+     * @return
+     */
+    static long getAllocatedBytes() {
+        if (Build.VERSION.SDK_INT < Build.VERSION_CODES.M) {
+            return -1;
+        }
+
+        String stat = Debug.getRuntimeStat("art.gc.bytes-allocated");
+        if (stat == null) {
+            return -1;
+        }
+        return Long.parseLong(stat);
+    }
+
+    /**
+     * Measure bytes allocated per run of task
+     * @param task
+     * @param iterations
+     * @return bytes per iteration, -1 if it's not supported on this device
+     */
+    static long measureAllocatedBytesPerRun(Runnable task, int iterations) {
+        long before = getAllocatedBytes();
+        for (int i = 0; i < iterations; ++i) {
+            task.run();
+        }
+        long after = getAllocatedBytes();
+
+        if (before < 0 || after < 0) {
+            return -1;
+        }
+        return (after - before) / iterations;
+    }
+
+    /**
+     *
+     * @param name
+     * @param bytesPerRun
+     */
+    static void reportAllocation(String name, long bytesPerRun) {
+        Log.i(LOG_TAG, name + " allocated bytes per run: " +
+                ((bytesPerRun < 0)? "unsupported" : Long.toString(bytesPerRun)));
+    }
+}
@@ -0,0 +1,82 @@
+package com.lifejourney.racingfever;
+
+import androidx.benchmark.BenchmarkState;
+import androidx.benchmark.junit4.BenchmarkRule;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.Parameterized;
+
+import java.util.ArrayList;
+import java.util.Collection;
+
+/**
+ * Benchmark for per-tick driver pipeline in headless world.
+ * Driver.update -> drive -> state handlers -> Car.avoidObstacles / checkObstacleCanBeCollided
+ */
+@RunWith(Parameterized.class)
+public class DriverBenchmark {
+
+    private static final long SEED = 1L;
+    private static final int WARMUP_TICKS = 40;
+    private static final int ALLOCATION_TICKS = 200;
+
+    @Parameterized.Parameters(name = "{0}_{1}cars")
+    public static Collection<Object[]> parameters() {
+        Collection<Object[]> parameters = new ArrayList<>();
+        for (String mapAsset : new String[] { "maps/track2.png", "maps/track3.png" }) {
+            for (int numberOfCars : new int[] { 8, 64, 512 }) {
+                parameters.add(new Object[] { mapAsset, numberOfCars });
+            }
+        }
+        return parameters;
+    }
+
+    public DriverBenchmark(String mapAsset, int numberOfCars) {
+        this.mapAsset = mapAsset;
+        this.numberOfCars = numberOfCars;
+    }
+
+    @Before
+    public void setUp() {
+        world = new GameWorld(BenchmarkUtils.loadTrackData(mapAsset), numberOfCars, SEED,
+                true);
+
+        // Let cars leave starting grid before measurement
+        for (int i = 0; i < WARMUP_TICKS; ++i) {
+            world.step();
+        }
+    }
+
+    @After
+    public void tearDown() {
+        world.close();
+    }
+
+    @Test
+    public void tick() {
+        BenchmarkState state = benchmarkRule.getState();
+        while (state.keepRunning()) {
+            world.step();
+        }
+
+        long bytesPerTick = BenchmarkUtils.measureAllocatedBytesPerRun(new Runnable() {
+            @Override
+            public void run() {
+                world.step();
+            }
+        }, ALLOCATION_TICKS);
+        BenchmarkUtils.reportAllocation("tick " + mapAsset + " " + numberOfCars + " cars",
+                bytesPerTick);
+    }
+
+    @Rule
+    public BenchmarkRule benchmarkRule = new BenchmarkRule();
+
+    private String mapAsset;
+    private int numberOfCars;
+    private GameWorld world;
+}
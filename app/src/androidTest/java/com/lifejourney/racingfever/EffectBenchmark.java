@@ -0,0 +1,174 @@
+package com.lifejourney.racingfever;
+
+import androidx.benchmark.BenchmarkState;
+import androidx.benchmark.junit4.BenchmarkRule;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.Parameterized;
+
+import java.util.ArrayList;
+import java.util.Collection;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Benchmark for per-tick effect handling of drivers, which is setting rank slot modifier
+ * and applying effects. Effects have staggered finite durations and expired ones are added
+ * again, so every tick has some effects expiring and added. It's expected to allocate
+ * nothing per tick, and its time shouldn't grow with the number of active effects per car.
+ */
+@RunWith(Parameterized.class)
+public class EffectBenchmark {
+
+    private static final long SEED = 1L;
+    private static final int ALLOCATION_TICKS = 1000;
+    private static final int MIN_DURATION = 30;
+    private static final int DURATION_KINDS = 64;
+    private static final float TOLERANCE = 1e-4f;
+
+    @Parameterized.Parameters(name = "{0}cars_{1}effects")
+    public static Collection<Object[]> parameters() {
+        Collection<Object[]> parameters = new ArrayList<>();
+        for (int numberOfCars : new int[] { 8, 64, 512 }) {
+            for (int effectsPerCar : new int[] { 0, 100, 500 }) {
+                parameters.add(new Object[] { numberOfCars, effectsPerCar });
+            }
+        }
+        return parameters;
+    }
+
+    public EffectBenchmark(int numberOfCars, int effectsPerCar) {
+        this.numberOfCars = numberOfCars;
+        this.effectsPerCar = effectsPerCar;
+    }
+
+    @Before
+    public void setUp() {
+        world = new GameWorld(BenchmarkUtils.loadTrackData("maps/track2.png"), numberOfCars,
+                SEED, true);
+        drivers = world.getDrivers();
+
+        // Boosts and penalties of different durations, so that they expire at different ticks
+        builders = new Effect.Builder[DURATION_KINDS];
+        for (int i = 0; i < DURATION_KINDS; ++i) {
+            int duration = MIN_DURATION + i;
+            if (i % 2 == 0) {
+                builders[i] = new Effect.Builder("boost", duration)
+                        .modifier(Effect.Channel.SPEED, 1.01f)
+                        .modifier(Effect.Channel.POWER, 1.02f);
+            }
+            else {
+                builders[i] = new Effect.Builder("penalty", duration)
+                        .modifier(Effect.Channel.AGILITY, 0.99f)
+                        .modifier(Effect.Channel.BRAKING, 0.98f)
+                        .modifierDriverGeneral(0.99f);
+            }
+        }
+        for (Driver driver : drivers) {
+            refillEffects(driver);
+        }
+    }
+
+    /**
+     * Add effects until driver has effectsPerCar of them
+     * @param driver
+     */
+    private void refillEffects(Driver driver) {
+        while (driver.getEffects().size() < effectsPerCar) {
+            driver.addEffect(builders[nextBuilder]);
+            nextBuilder = (nextBuilder + 1) % DURATION_KINDS;
+        }
+    }
+
+    /**
+     * Same as what GameWorld does for effects in a tick, and effects expired in the tick are
+     * added again
+     */
+    private void tickEffects() {
+        for (int rank = 0; rank < drivers.size(); ++rank) {
+            Driver driver = drivers.get(rank);
+            driver.setRank(rank);
+            driver.setSlotModifier(Driver.ModifierSlot.RANK, getRankModifier(rank), 1.0f);
+            driver.applyEffects();
+            refillEffects(driver);
+        }
+    }
+
+    /**
+     *
+     * @param rank
+     * @return
+     */
+    private float getRankModifier(int rank) {
+        return 1.0f + rank*(0.1f/8);
+    }
+
+    /**
+     * Check combined modifiers against product of active effects
+     */
+    private void verifyModifiers() {
+        for (int rank = 0; rank < drivers.size(); ++rank) {
+            Driver driver = drivers.get(rank);
+            driver.applyEffects();
+
+            EffectStack effects = driver.getEffects();
+            float[] expected = Effect.newModifiers();
+            float expectedDriverGeneral = 1.0f;
+            for (int i = 0; i < effects.size(); ++i) {
+                Effect effect = effects.get(i);
+                for (int channel = 0; channel < Effect.CHANNEL_COUNT; ++channel) {
+                    expected[channel] *= effect.getModifier(channel);
+                }
+                expectedDriverGeneral *= effect.getModifierDriverGeneral();
+            }
+            expected[Effect.Channel.SPEED.ordinal()] *= getRankModifier(rank);
+            expected[Effect.Channel.POWER.ordinal()] *= getRankModifier(rank);
+            expected[Effect.Channel.AGILITY.ordinal()] *= getRankModifier(rank);
+
+            for (int channel = 0; channel < Effect.CHANNEL_COUNT; ++channel) {
+                assertEquals(expected[channel], effects.getModifiers()[channel],
+                        expected[channel] * TOLERANCE);
+            }
+            assertEquals(expectedDriverGeneral, effects.getModifierDriverGeneral(),
+                    expectedDriverGeneral * TOLERANCE);
+        }
+    }
+
+    @After
+    public void tearDown() {
+        world.close();
+    }
+
+    @Test
+    public void tick() {
+        BenchmarkState state = benchmarkRule.getState();
+        while (state.keepRunning()) {
+            tickEffects();
+        }
+
+        long bytesPerTick = BenchmarkUtils.measureAllocatedBytesPerRun(new Runnable() {
+            @Override
+            public void run() {
+                tickEffects();
+            }
+        }, ALLOCATION_TICKS);
+        BenchmarkUtils.reportAllocation("effects " + numberOfCars + " cars " +
+                effectsPerCar + " effects per car", bytesPerTick);
+
+        verifyModifiers();
+    }
+
+    @Rule
+    public BenchmarkRule benchmarkRule = new BenchmarkRule();
+
+    private int numberOfCars;
+    private int effectsPerCar;
+    private GameWorld world;
+    private ArrayList<Driver> drivers;
+    private Effect.Builder[] builders;
+    private int nextBuilder;
+}
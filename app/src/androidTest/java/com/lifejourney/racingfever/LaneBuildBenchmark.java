@@ -0,0 +1,139 @@
+package com.lifejourney.racingfever;
+
+import androidx.benchmark.BenchmarkState;
+import androidx.benchmark.junit4.BenchmarkRule;
+
+import com.lifejourney.engine2d.Point;
+import com.lifejourney.engine2d.Waypoint;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.Parameterized;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+
+/**
+ * Benchmark for building lanes around optimal lane on synthetic square ring tracks.
+ * Number of waypoints grows linearly with map size, so should the time.
+ */
+@RunWith(Parameterized.class)
+public class LaneBuildBenchmark {
+
+    private static final float SCALE = 2.0f;
+    private static final int MARGIN = 4;
+    private static final int ROAD_WIDTH = 8;
+
+    private static final byte GRASS = (byte) 0xff;
+    private static final byte ROAD = (byte) 0x00;
+    private static final byte START = (byte) 0x82;
+    private static final byte END = (byte) 0x5a;
+    private static final byte FINISH = (byte) 0xb2;
+
+    @Parameterized.Parameters(name = "{0}x{0}")
+    public static Collection<Object[]> parameters() {
+        Collection<Object[]> parameters = new ArrayList<>();
+        for (int mapSize : new int[] { 512, 1024, 2048, 4096 }) {
+            parameters.add(new Object[] { mapSize });
+        }
+        return parameters;
+    }
+
+    public LaneBuildBenchmark(int mapSize) {
+        this.mapSize = mapSize;
+    }
+
+    @Before
+    public void setUp() {
+        data = new TrackData("synthetic_ring_" + mapSize, createRingGrid(mapSize));
+    }
+
+    @Test
+    public void buildLanes() {
+        BenchmarkState state = benchmarkRule.getState();
+        while (state.keepRunning()) {
+            state.pauseTiming();
+            ArrayList<Waypoint> optimalLane = createCenterLane(mapSize);
+            state.resumeTiming();
+
+            new Track(data, SCALE, optimalLane);
+        }
+    }
+
+    /**
+     * Square ring road with finish line on the top side
+     * @param mapSize
+     * @return
+     */
+    private static byte[][] createRingGrid(int mapSize) {
+        int outerMin = MARGIN, outerMax = mapSize - MARGIN - 1;
+        int innerMin = MARGIN + ROAD_WIDTH, innerMax = mapSize - MARGIN - ROAD_WIDTH - 1;
+
+        byte[][] grid = new byte[mapSize][mapSize];
+        for (int y = 0; y < mapSize; ++y) {
+            Arrays.fill(grid[y], GRASS);
+            if (y < outerMin || y > outerMax) {
+                continue;
+            }
+
+            for (int x = outerMin; x <= outerMax; ++x) {
+                boolean inner = (x >= innerMin && x <= innerMax && y >= innerMin && y <= innerMax);
+                if (!inner) {
+                    grid[y][x] = ROAD;
+                }
+            }
+        }
+
+        int finishX = mapSize / 2;
+        for (int y = outerMin; y < innerMin; ++y) {
+            grid[y][finishX] = FINISH;
+            grid[y][finishX + 1] = START;
+        }
+        grid[outerMin][finishX - 1] = END;
+        grid[innerMin - 1][finishX - 1] = END;
+
+        return grid;
+    }
+
+    /**
+     * Clockwise center line of ring road starting behind finish line
+     * @param mapSize
+     * @return
+     */
+    private static ArrayList<Waypoint> createCenterLane(int mapSize) {
+        int min = MARGIN + ROAD_WIDTH / 2, max = mapSize - MARGIN - ROAD_WIDTH / 2 - 1;
+        int startX = mapSize / 2 + 1;
+
+        ArrayList<Point> points = new ArrayList<>();
+        for (int x = startX; x < max; ++x) {
+            points.add(new Point(x, min));
+        }
+        for (int y = min; y < max; ++y) {
+            points.add(new Point(max, y));
+        }
+        for (int x = max; x > min; --x) {
+            points.add(new Point(x, max));
+        }
+        for (int y = max; y > min; --y) {
+            points.add(new Point(min, y));
+        }
+        for (int x = min; x < startX - 1; ++x) {
+            points.add(new Point(x, min));
+        }
+
+        ArrayList<Waypoint> lane = new ArrayList<>(points.size());
+        for (Point pt : points) {
+            lane.add(new Waypoint(pt, null, 0.0f));
+        }
+        return lane;
+    }
+
+    @Rule
+    public BenchmarkRule benchmarkRule = new BenchmarkRule();
+
+    private int mapSize;
+    private TrackData data;
+}
@@ -0,0 +1,86 @@
+package com.lifejourney.racingfever;
+
+import android.util.Log;
+
+import androidx.benchmark.BenchmarkState;
+import androidx.benchmark.junit4.BenchmarkRule;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.Parameterized;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+
+/**
+ * Benchmark for running a sweep of races on a shared track model with different number of
+ * workers.
+ * Time per batch should drop linearly with workers up to the number of cores.
+ */
+@RunWith(Parameterized.class)
+public class RaceBatchBenchmark {
+
+    private static final String LOG_TAG = "Benchmark";
+    private static final int NUMBER_OF_CARS = 8;
+    private static final int MAX_TICKS = 400;
+
+    @Parameterized.Parameters(name = "{0}workers")
+    public static Collection<Object[]> parameters() {
+        Collection<Object[]> parameters = new ArrayList<>();
+        for (int workerCount : new int[] { 1, 2, 4, 8 }) {
+            parameters.add(new Object[] { workerCount });
+        }
+        return parameters;
+    }
+
+    public RaceBatchBenchmark(int workerCount) {
+        this.workerCount = workerCount;
+    }
+
+    @Before
+    public void setUp() {
+        TrackModel trackModel =
+                new TrackModel(BenchmarkUtils.loadTrackData("maps/track2.png"), 2.0f);
+
+        races = new ArrayList<>();
+        for (DriverTuning tuning : Arrays.asList(DriverTuning.DEFAULT,
+                new DriverTuning.Builder().overtakingEnterPossibility(0.1f).build(),
+                new DriverTuning.Builder().aggressiveEnterPossibility(0.1f).build(),
+                new DriverTuning.Builder().laneChangingGuardTime(12).build())) {
+            for (long seed = 1; seed <= 4; ++seed) {
+                races.add(new RaceBatchRunner.Race.Builder(trackModel, seed).tuning(tuning)
+                        .numberOfCars(NUMBER_OF_CARS).maxTicks(MAX_TICKS).build());
+            }
+        }
+
+        runner = new RaceBatchRunner(workerCount);
+    }
+
+    @After
+    public void tearDown() {
+        runner.shutdown();
+    }
+
+    @Test
+    public void runBatch() throws InterruptedException {
+        BenchmarkState state = benchmarkRule.getState();
+        ArrayList<RaceBatchRunner.RaceResult> results = null;
+        while (state.keepRunning()) {
+            results = runner.run(races);
+        }
+
+        Log.i(LOG_TAG, "Last result of " + results.size() + " races with " + workerCount +
+                " workers: " + results.get(0));
+    }
+
+    @Rule
+    public BenchmarkRule benchmarkRule = new BenchmarkRule();
+
+    private int workerCount;
+    private ArrayList<RaceBatchRunner.Race> races;
+    private RaceBatchRunner runner;
+}
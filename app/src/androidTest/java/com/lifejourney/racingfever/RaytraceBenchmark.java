@@ -0,0 +1,134 @@
+package com.lifejourney.racingfever;
+
+import androidx.benchmark.BenchmarkState;
+import androidx.benchmark.junit4.BenchmarkRule;
+
+import com.lifejourney.engine2d.Point;
+import com.lifejourney.engine2d.PointF;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.Parameterized;
+
+import java.util.ArrayList;
+import java.util.Collection;
+
+/**
+ * Benchmark for distance to road block, list based raytrace vs. early-exit visitor raytrace.
+ * Rays are cast from every waypoint of optimal lane to 8 directions like car does.
+ */
+@RunWith(Parameterized.class)
+public class RaytraceBenchmark {
+
+    private static final float SCALE = 2.0f;
+    private static final int DIRECTIONS = 8;
+    private static final int ALLOCATION_RUNS = 20;
+
+    @Parameterized.Parameters(name = "{0}")
+    public static Collection<Object[]> parameters() {
+        Collection<Object[]> parameters = new ArrayList<>();
+        for (String mapAsset : new String[] { "maps/track2.png", "maps/track3.png" }) {
+            parameters.add(new Object[] { mapAsset });
+        }
+        return parameters;
+    }
+
+    public RaytraceBenchmark(String mapAsset) {
+        this.mapAsset = mapAsset;
+    }
+
+    @Before
+    public void setUp() {
+        track = new Track(BenchmarkUtils.loadTrackData(mapAsset), SCALE, true);
+        maxDistance = track.getView().getTileSize().width * 10;
+
+        PackedLane lane = track.getPackedLane(Track.LaneSelection.INVALID_LANE);
+        origins = new ArrayList<>();
+        for (int i = 0; i < lane.size(); ++i) {
+            origins.add(new PointF(lane.getCenterX(i), lane.getCenterY(i)));
+        }
+    }
+
+    @Test
+    public void tileList() {
+        BenchmarkState state = benchmarkRule.getState();
+        while (state.keepRunning()) {
+            castAllWithTileList();
+        }
+
+        BenchmarkUtils.reportAllocation("raytrace tile list " + mapAsset,
+                BenchmarkUtils.measureAllocatedBytesPerRun(new Runnable() {
+                    @Override
+                    public void run() {
+                        castAllWithTileList();
+                    }
+                }, ALLOCATION_RUNS));
+    }
+
+    @Test
+    public void earlyExit() {
+        BenchmarkState state = benchmarkRule.getState();
+        while (state.keepRunning()) {
+            castAllWithEarlyExit();
+        }
+
+        BenchmarkUtils.reportAllocation("raytrace early exit " + mapAsset,
+                BenchmarkUtils.measureAllocatedBytesPerRun(new Runnable() {
+                    @Override
+                    public void run() {
+                        castAllWithEarlyExit();
+                    }
+                }, ALLOCATION_RUNS));
+    }
+
+    /**
+     * Previous implementation of Track.getNearestDistanceToRoadBlock
+     * @return
+     */
+    private float castAllWithTileList() {
+        TrackView view = track.getView();
+        TrackData data = track.getData();
+        float sum = 0.0f;
+        for (PointF origin : origins) {
+            for (int d = 0; d < DIRECTIONS; ++d) {
+                ArrayList<Point> points = view.getRaytracedTileList(origin,
+                        d * 360.0f / DIRECTIONS, maxDistance);
+                for (Point p : points) {
+                    if (!data.isMovable(p)) {
+                        sum += origin.distance(view.getScreenRegionfromTrackCoord(p).center());
+                        break;
+                    }
+                }
+            }
+        }
+        return sum;
+    }
+
+    /**
+     *
+     * @return
+     */
+    private float castAllWithEarlyExit() {
+        float sum = 0.0f;
+        for (PointF origin : origins) {
+            for (int d = 0; d < DIRECTIONS; ++d) {
+                float distance = track.getNearestDistanceToRoadBlock(origin,
+                        d * 360.0f / DIRECTIONS, maxDistance);
+                if (distance != Float.MAX_VALUE) {
+                    sum += distance;
+                }
+            }
+        }
+        return sum;
+    }
+
+    @Rule
+    public BenchmarkRule benchmarkRule = new BenchmarkRule();
+
+    private String mapAsset;
+    private Track track;
+    private float maxDistance;
+    private ArrayList<PointF> origins;
+}
@@ -0,0 +1,89 @@
+package com.lifejourney.racingfever;
+
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Stress test for reading snapshots off the world thread. A reader thread keeps pinning
+ * published snapshots and reading them twice while headless world steps, and a snapshot
+ * which changes between the two reads is torn.
+ */
+@RunWith(AndroidJUnit4.class)
+public class SnapshotStressTest {
+
+    private static final long SEED = 1L;
+    private static final int NUMBER_OF_CARS = 24;
+    private static final int TICKS = 3000;
+
+    @Before
+    public void setUp() {
+        world = new GameWorld(BenchmarkUtils.loadTrackData("maps/track3.png"), NUMBER_OF_CARS,
+                SEED, true);
+    }
+
+    @After
+    public void tearDown() {
+        world.close();
+    }
+
+    @Test
+    public void pinnedSnapshotIsNotTorn() throws InterruptedException {
+        final AtomicBoolean stopped = new AtomicBoolean(false);
+        Thread reader = new Thread() {
+            @Override
+            public void run() {
+                while (!stopped.get()) {
+                    WorldSnapshot snapshot = world.acquireSnapshot();
+                    try {
+                        long checksum = checksum(snapshot);
+                        if (checksum(snapshot) != checksum) {
+                            tornCount++;
+                        }
+                        readCount++;
+                    }
+                    finally {
+                        world.releaseSnapshot(snapshot);
+                    }
+                }
+            }
+        };
+        reader.start();
+
+        for (int i = 0; i < TICKS; ++i) {
+            world.step();
+        }
+        stopped.set(true);
+        reader.join();
+
+        assertTrue(readCount > 0);
+        assertEquals(0, tornCount);
+    }
+
+    /**
+     *
+     * @param snapshot
+     * @return
+     */
+    private static long checksum(WorldSnapshot snapshot) {
+        long checksum = snapshot.getTick();
+        for (int i = 0; i < snapshot.size(); ++i) {
+            checksum = checksum * 31 + Float.floatToIntBits(snapshot.getX(i));
+            checksum = checksum * 31 + Float.floatToIntBits(snapshot.getY(i));
+            checksum = checksum * 31 + Float.floatToIntBits(snapshot.getHeading(i));
+        }
+        return checksum;
+    }
+
+    private GameWorld world;
+    private long readCount;
+    private long tornCount;
+}
@@ -9,13 +9,18 @@ import com.lifejourney.engine2d.Size;
 import com.lifejourney.engine2d.Sprite;
 import com.lifejourney.engine2d.Vector2D;
 
-import java.util.ArrayList;
+import java.util.Random;
 
 public class Car extends CollidableObject {
 
     private static final String LOG_TAG = "Car";
     private static final int CAR_LAYER = 1;
 
+    // Engine creates native debug shapes for every collidable object and its native registry
+    // is not thread safe, so cars are created and closed one at a time even when worlds run
+    // on many threads
+    private static final java.lang.Object ENGINE_OBJECT_LOCK = new java.lang.Object();
+
     enum Type {
         BUMPCAR("Bumpcar"),
         AVANTEDUL("Avantedul"),
@@ -168,6 +173,7 @@ public class Car extends CollidableObject {
         private int colorIndex;
         private float headDirection = 0.0f;
         private float scale = 1.0f;
+        private boolean headless = false;
 
         public Builder(String name, PointF position, Type type, int colorIndex) {
             this.name = name;
@@ -183,14 +189,20 @@ public class Car extends CollidableObject {
             this.scale = scale;
             return this;
         }
+        public Builder headless(boolean headless) {
+            this.headless = headless;
+            return this;
+        }
         public Car build() {
-            return new PrivateBuilder<>(position, type, colorIndex).name(name)
-                    .depth(1.0f).friction(0.1f).inertia(type.inertia()).mass(type.mass())
-                    .headDirection(headDirection).maxSpeed(type.maxSpeed())
-                    .enginePower(type.power())
-                    .agility(type.agility())
-                    .sprite(type.sprite(scale)).shape(type.shape(scale))
-                    .visible(true).build();
+            synchronized (ENGINE_OBJECT_LOCK) {
+                return new PrivateBuilder<>(position, type, colorIndex).name(name)
+                        .depth(1.0f).friction(0.1f).inertia(type.inertia()).mass(type.mass())
+                        .headDirection(headDirection).maxSpeed(type.maxSpeed())
+                        .enginePower(type.power())
+                        .agility(type.agility())
+                        .sprite(headless? null : type.sprite(scale)).shape(type.shape(scale))
+                        .visible(true).build();
+            }
         }
     }
 
@@ -249,11 +261,12 @@ public class Car extends CollidableObject {
         enginePower = builder.enginePower;
         agility = builder.agility;
         colorIndex = builder.colorIndex;
-        modifierGeneral = 1.0f;
+        modifiers = Effect.newModifiers();
         collisionRecoveryLeft = 0;
+        collisionCount = 0;
         setRotation(headDirection);
         setMaxAngularVelocity(0.0f);
-        getSprite().setGridIndex(new Point(colorIndex, 0));
+        setSpriteType(SpriteType.NORMAL);
     }
 
     /**
@@ -265,6 +278,8 @@ public class Car extends CollidableObject {
 
         // Apply braking force to velocity
         if (brakingForce > 0.0f) {
+            float brakingForce = Math.min(1.0f,
+                    this.brakingForce * modifiers[Effect.Channel.BRAKING.ordinal()]);
             float velocityScalar = getVelocity().length() * (1.0f - (brakingForce /getUpdatePeriod()));
             getVelocity().truncate(velocityScalar);
         }
@@ -301,9 +316,25 @@ public class Car extends CollidableObject {
     public void onCollisionOccurred(CollidableObject collidedObject) {
         if (!isCollided()) {
             collisionRecoveryLeft = COLLISION_RECOVERY_PERIOD;
+            countCollision();
         }
     }
 
+    /**
+     * Headless world has no collision resolution, so it counts contacts by itself
+     */
+    void countCollision() {
+        collisionCount++;
+    }
+
+    /**
+     *
+     * @return
+     */
+    int getCollisionCount() {
+        return collisionCount;
+    }
+
     /**
      *
      * @param targetPosition
@@ -343,36 +374,43 @@ public class Car extends CollidableObject {
 
     /**
      *
-     * @param obstacles
+     * @param snapshot
+     * @param obstacles indices of obstacles in snapshot
+     * @param obstacleCount
      * @param maxForwardDistance
      * @param maxBackwardDistance
      * @param track
+     * @param random
      * @return
      */
-    AvoidingState avoidObstacles(ArrayList<CollidableObject> obstacles,
+    AvoidingState avoidObstacles(WorldSnapshot snapshot,
+                                 int[] obstacles,
+                                 int obstacleCount,
                                  float maxForwardDistance,
                                  float maxBackwardDistance,
                                  Track track,
                                  float avoidingPossibility,
-                                 float brakingPossibility) {
+                                 float brakingPossibility,
+                                 Random random) {
         // Check forward direction
         float nearestForwardDistance = Float.MAX_VALUE;
-        CollidableObject nearestForwardObstacle = null;
-        for (CollidableObject obstacle : obstacles) {
-            float distance = checkObstacleCanBeCollided(obstacle, getVelocity().direction(),
-                    maxForwardDistance, maxBackwardDistance);
+        int nearestForwardObstacle = -1;
+        Vector2D forwardStep = getVirtualStep(getVelocity().direction());
+        for (int i = 0; i < obstacleCount; ++i) {
+            float distance = checkObstacleCanBeCollided(snapshot, obstacles[i],
+                    forwardStep.x, forwardStep.y, maxForwardDistance, maxBackwardDistance);
             if (distance < nearestForwardDistance) {
                 nearestForwardDistance = distance;
-                nearestForwardObstacle = obstacle;
+                nearestForwardObstacle = obstacles[i];
             }
         }
 
-        if (nearestForwardObstacle == null) {
+        if (nearestForwardObstacle == -1) {
             return AvoidingState.NO_OBSTACLE;
         }
 
-        Vector2D[] avoidanceVectors =
-                getAvoidanceVectorForObstacle(nearestForwardObstacle, maxForwardDistance);
+        Vector2D[] avoidanceVectors = getAvoidanceVectorForObstacle(snapshot,
+                nearestForwardObstacle, maxForwardDistance);
         if (avoidanceVectors == null) {
             return AvoidingState.NO_OBSTACLE;
         }
@@ -381,10 +419,11 @@ public class Car extends CollidableObject {
             float direction = avoidanceVectors[i].direction();
 
             // Check obstacles in avoidance direction
+            Vector2D step = getVirtualStep(direction);
             float nearestDistance = Float.MAX_VALUE;
-            for (CollidableObject obstacle : obstacles) {
-                float distance = checkObstacleCanBeCollided(obstacle, direction, maxForwardDistance,
-                        maxBackwardDistance);
+            for (int o = 0; o < obstacleCount; ++o) {
+                float distance = checkObstacleCanBeCollided(snapshot, obstacles[o],
+                        step.x, step.y, maxForwardDistance, maxBackwardDistance);
                 if (distance < nearestDistance) {
                     nearestDistance = distance;
                 }
@@ -414,15 +453,16 @@ public class Car extends CollidableObject {
             }
 
             // Avoid it
-            if (Math.random() < avoidingPossibility) {
+            if (random.nextDouble() < avoidingPossibility) {
                 addForce(avoidanceVectors[i].truncate(corneringPower));
                 return AvoidingState.AVOIDING;
             }
         }
 
         // There's no safe path and front obstacle is car, brake it
-        if (Math.random() < brakingPossibility) {
-            brake(nearestForwardObstacle, (float) ((Math.random()%0.1f-0.05f)+0.8f), 0.03f, 0.1f);
+        if (random.nextDouble() < brakingPossibility) {
+            brake(snapshot, nearestForwardObstacle,
+                    (float) ((random.nextDouble()%0.1f-0.05f)+0.8f), 0.03f, 0.1f);
             setForce(new Vector2D());
             return AvoidingState.BRAKING;
         }
@@ -431,15 +471,28 @@ public class Car extends CollidableObject {
     }
 
     /**
-     *
-     * @param obstacle
+     * Moving step for an update when this car heads to direction at current speed, same as
+     * the step of getVirtualPositionVector. It's computed once for checking many obstacles.
      * @param direction
+     * @return
+     */
+    Vector2D getVirtualStep(float direction) {
+        return new Vector2D(direction).multiply(getVelocity().length());
+    }
+
+    /**
+     *
+     * @param snapshot
+     * @param obstacle index of obstacle in snapshot
+     * @param stepX step of this car for an update, from getVirtualStep
+     * @param stepY
      * @param maxForwardDistance
      * @param maxBackwardDistance
      * @return
      */
-    public float checkObstacleCanBeCollided(CollidableObject obstacle, float direction,
-                                            float maxForwardDistance, float maxBackwardDistance) {
+    float checkObstacleCanBeCollided(WorldSnapshot snapshot, int obstacle,
+                                     float stepX, float stepY,
+                                     float maxForwardDistance, float maxBackwardDistance) {
 
         float velocityScalar = getVelocity().length();
         if( velocityScalar == 0.0f) {
@@ -451,37 +504,43 @@ public class Car extends CollidableObject {
         int maxUpdatesBeforeMaxBackwardDistance =
                 Math.min((int)(maxBackwardDistance / velocityScalar), getUpdatePeriod()*2);
 
-        for (int nUpdate = 0; nUpdate <= maxUpdatesBeforeMaxForwardDistance; nUpdate ++) {
+        PointF position = getPosition();
+        float x = position.x, y = position.y;
+        float obstacleX = snapshot.getX(obstacle), obstacleY = snapshot.getY(obstacle);
+        float obstacleVelocityX = snapshot.getVelocityX(obstacle);
+        float obstacleVelocityY = snapshot.getVelocityY(obstacle);
 
-            // if obstacle was at backward direction, only check near one
-            if (nUpdate > maxUpdatesBeforeMaxBackwardDistance) {
-                Vector2D unitOffset = obstacle.getPositionVector().subtract(getPositionVector()).normalize();
-                float forwardness = getForwardVector().dot(unitOffset);
-                if (forwardness < 0.0f) {
-                    break;
-                }
-            }
+        // if obstacle was at backward direction, only check near one. Velocity has the same
+        // direction as forward vector, so it's used without being normalized.
+        Vector2D velocity = getVelocity();
+        boolean backward = (velocity.x * (obstacleX - x) + velocity.y * (obstacleY - y) < 0.0f);
 
-            Vector2D futureObstaclePositionVector = obstacle.getFuturePositionVector(nUpdate);
-            Vector2D futurePositionVector = getVirtualPositionVector(direction, nUpdate);
-            Vector2D localOffset = futureObstaclePositionVector.clone().subtract(futurePositionVector);
+        float totalRadius = getShape().getRadius() + snapshot.getRadius(obstacle);
+        float totalRadiusSq = totalRadius * totalRadius;
 
-            // Check it's close enough to collide
-            /*
-            float radius = getShape().getSupportPoint(localOffset.clone().multiply(-1))
-                    .distance(getPositionVector());
-            float obstacleRadius = obstacle.getShape().getSupportPoint(localOffset)
-                    .distance(obstacle.getPositionVector());
-             */
-            float radius = getShape().getRadius();
-            float obstacleRadius = obstacle.getShape().getRadius();
-            float totalRadius = radius + obstacleRadius;
+        // Future positions are accumulated one update at a time, as
+        // getFuturePositionVector/getVirtualPositionVector do
+        float futureX = x, futureY = y;
+        float futureObstacleX = obstacleX, futureObstacleY = obstacleY;
+        for (int nUpdate = 0; nUpdate <= maxUpdatesBeforeMaxForwardDistance; nUpdate ++) {
+            if (nUpdate > maxUpdatesBeforeMaxBackwardDistance && backward) {
+                break;
+            }
 
-            if (localOffset.lengthSq() > totalRadius * totalRadius)
-                continue;
+            // Check it's close enough to collide
+            float localOffsetX = futureObstacleX - futureX;
+            float localOffsetY = futureObstacleY - futureY;
+            if (localOffsetX * localOffsetX + localOffsetY * localOffsetY <= totalRadiusSq) {
+                float currentOffsetX = futureObstacleX - x;
+                float currentOffsetY = futureObstacleY - y;
+                return (float) Math.sqrt(currentOffsetX * currentOffsetX +
+                        currentOffsetY * currentOffsetY);
+            }
 
-            Vector2D currentOffset = futureObstaclePositionVector.clone().subtract(getPositionVector());
-            return currentOffset.length();
+            futureX += stepX;
+            futureY += stepY;
+            futureObstacleX += obstacleVelocityX;
+            futureObstacleY += obstacleVelocityY;
         }
 
         return Float.MAX_VALUE;
@@ -489,21 +548,23 @@ public class Car extends CollidableObject {
 
     /**
      *
-     * @param obstacle
+     * @param snapshot
+     * @param obstacle index of obstacle in snapshot
      * @param maxDistance
      * @return
      */
-    private Vector2D[] getAvoidanceVectorForObstacle(CollidableObject obstacle,
+    private Vector2D[] getAvoidanceVectorForObstacle(WorldSnapshot snapshot, int obstacle,
                                                      float maxDistance) {
 
         int maxUpdatesBeforeMaxDistance = (int) (maxDistance / getVelocity().length());
 
         for (int nUpdate = 0; nUpdate <= maxUpdatesBeforeMaxDistance; nUpdate ++) {
             float radius = getShape().getRadius();
-            float obstacleRadius = obstacle.getShape().getRadius();
+            float obstacleRadius = snapshot.getRadius(obstacle);
             float totalRadius = radius + obstacleRadius;
 
-            Vector2D futureObstaclePositionVector = obstacle.getFuturePositionVector(nUpdate);
+            Vector2D futureObstaclePositionVector =
+                    snapshot.getFuturePositionVector(obstacle, nUpdate);
             Vector2D futurePositionVector = getFuturePositionVector(nUpdate);
             Vector2D localOffset = futureObstaclePositionVector.subtract(futurePositionVector);
 
@@ -556,14 +617,15 @@ public class Car extends CollidableObject {
 
     /**
      *
-     * @param cautiousObject
+     * @param snapshot
+     * @param cautiousObject index of obstacle in snapshot
      * @param gapWeight
      * @param minWeight
      * @param maxWeight
      */
-    private void brake(CollidableObject cautiousObject, float gapWeight, float minWeight,
-                       float maxWeight) {
-        float objectVelocity = cautiousObject.getVelocity().dot(getForwardVector());
+    private void brake(WorldSnapshot snapshot, int cautiousObject, float gapWeight,
+                       float minWeight, float maxWeight) {
+        float objectVelocity = snapshot.getVelocity(cautiousObject).dot(getForwardVector());
         float myVelocity = getVelocity().length();
         float targetVelocity =
                 Math.min(objectVelocity * gapWeight, myVelocity*(1.0f-minWeight));
@@ -602,7 +664,7 @@ public class Car extends CollidableObject {
      * @return
      */
     float getMaxSpeed() {
-        return maxSpeed * modifierGeneral;
+        return maxSpeed * modifiers[Effect.Channel.SPEED.ordinal()];
     }
 
     /**
@@ -610,7 +672,7 @@ public class Car extends CollidableObject {
      * @return
      */
     float getEnginePower() {
-        return enginePower * modifierGeneral;
+        return enginePower * modifiers[Effect.Channel.POWER.ordinal()];
     }
 
     /**
@@ -618,7 +680,7 @@ public class Car extends CollidableObject {
      * @return
      */
     float getAgility() {
-        return agility * modifierGeneral;
+        return agility * modifiers[Effect.Channel.AGILITY.ordinal()];
     }
 
     /**
@@ -647,18 +709,29 @@ public class Car extends CollidableObject {
 
     /**
      *
+     * @param channel
      * @return
      */
-    public float getModifierGeneral() {
-        return modifierGeneral;
+    public float getModifier(Effect.Channel channel) {
+        return modifiers[channel.ordinal()];
     }
 
     /**
      *
-     * @param modifierGeneral
+     * @param modifiers modifiers indexed by ordinal of Effect.Channel
+     */
+    void setModifiers(float[] modifiers) {
+        System.arraycopy(modifiers, 0, this.modifiers, 0, Effect.CHANNEL_COUNT);
+    }
+
+    /**
+     * Release sprite and debug shapes created by engine
      */
-    public void setModifierGeneral(float modifierGeneral) {
-        this.modifierGeneral = modifierGeneral;
+    @Override
+    public void close() {
+        synchronized (ENGINE_OBJECT_LOCK) {
+            super.close();
+        }
     }
 
     @Override
@@ -666,9 +739,9 @@ public class Car extends CollidableObject {
         super.commit();
 
         if (driver != null) {
-            ArrayList<Effect> effects = driver.getEffects();
-            for (Effect effect: effects) {
-                effect.commit();
+            EffectStack effects = driver.getEffects();
+            for (int i = 0; i < effects.size(); ++i) {
+                effects.get(i).commit();
             }
         }
     }
@@ -687,6 +760,10 @@ public class Car extends CollidableObject {
      * @param type
      */
     public void setSpriteType(SpriteType type) {
+        if (getSprite() == null) {
+            return;
+        }
+
         switch (type) {
             case NORMAL:
                 getSprite().setGridIndex(new Point(colorIndex, 0));
@@ -715,7 +792,8 @@ public class Car extends CollidableObject {
     // state
     private Driver driver;
     private int collisionRecoveryLeft;
+    private int collisionCount;
     private float headDirection;
     private float brakingForce;
-    private float modifierGeneral;
+    private float[] modifiers;
 }
@@ -8,6 +8,34 @@ public class CoordKey {
         this.y = y;
     }
 
+    /**
+     * Pack coordinate into primitive long, so it can be used as a key without allocation
+     * @param x
+     * @param y
+     * @return
+     */
+    static long pack(int x, int y) {
+        return ((long) x << 32) | (y & 0xffffffffL);
+    }
+
+    /**
+     *
+     * @param key
+     * @return
+     */
+    static int unpackX(long key) {
+        return (int) (key >> 32);
+    }
+
+    /**
+     *
+     * @param key
+     * @return
+     */
+    static int unpackY(long key) {
+        return (int) key;
+    }
+
     /**
      *
      * @return
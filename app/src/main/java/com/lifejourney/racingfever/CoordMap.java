@@ -0,0 +1,250 @@
+package com.lifejourney.racingfever;
+
+import java.util.Arrays;
+
+/**
+ * Open addressing hash map from coordinates packed by CoordKey.pack to values. Keys are kept
+ * as primitive long, so lookup and insertion don't allocate once the table has grown enough.
+ *
+ * Entries can be iterated by slot index from 0 to capacity() - 1, skipping empty slots.
+ * Removing entries while iterating is not supported, as it shifts entries between slots.
+ */
+class CoordMap<V> {
+
+    private static final long EMPTY = Long.MIN_VALUE;
+
+    CoordMap() {
+        this(16);
+    }
+
+    /**
+     *
+     * @param expectedSize
+     */
+    CoordMap(int expectedSize) {
+        int capacity = 16;
+        while (capacity < expectedSize * 2) {
+            capacity <<= 1;
+        }
+        allocate(capacity);
+    }
+
+    /**
+     *
+     * @param capacity
+     */
+    @SuppressWarnings("unchecked")
+    private void allocate(int capacity) {
+        keys = new long[capacity];
+        Arrays.fill(keys, EMPTY);
+        values = (V[]) new Object[capacity];
+        mask = capacity - 1;
+        resizeThreshold = capacity / 2;
+    }
+
+    /**
+     *
+     * @param key
+     * @return
+     */
+    private int slotOf(long key) {
+        long hash = key * 0x9e3779b97f4a7c15L;
+        return (int) (hash ^ (hash >>> 32)) & mask;
+    }
+
+    /**
+     *
+     * @param key
+     * @return slot of key, -1 if key is not in the map
+     */
+    private int findSlot(long key) {
+        int slot = slotOf(key);
+        while (keys[slot] != EMPTY) {
+            if (keys[slot] == key) {
+                return slot;
+            }
+            slot = (slot + 1) & mask;
+        }
+        return -1;
+    }
+
+    /**
+     *
+     * @param key
+     * @return
+     */
+    V get(long key) {
+        if (key == EMPTY) {
+            throw new IllegalArgumentException("Reserved key");
+        }
+
+        int slot = findSlot(key);
+        return (slot < 0)? null : values[slot];
+    }
+
+    /**
+     *
+     * @param x
+     * @param y
+     * @return
+     */
+    V get(int x, int y) {
+        return get(CoordKey.pack(x, y));
+    }
+
+    /**
+     *
+     * @param key
+     * @param value
+     * @return previous value, null if there wasn't
+     */
+    V put(long key, V value) {
+        if (key == EMPTY) {
+            throw new IllegalArgumentException("Reserved key");
+        }
+
+        int slot = slotOf(key);
+        while (keys[slot] != EMPTY) {
+            if (keys[slot] == key) {
+                V prevValue = values[slot];
+                values[slot] = value;
+                return prevValue;
+            }
+            slot = (slot + 1) & mask;
+        }
+        keys[slot] = key;
+        values[slot] = value;
+
+        if (++size > resizeThreshold) {
+            rehash(keys.length << 1);
+        }
+        return null;
+    }
+
+    /**
+     *
+     * @param x
+     * @param y
+     * @param value
+     * @return previous value, null if there wasn't
+     */
+    V put(int x, int y, V value) {
+        return put(CoordKey.pack(x, y), value);
+    }
+
+    /**
+     *
+     * @param key
+     * @return removed value, null if there wasn't
+     */
+    V remove(long key) {
+        if (key == EMPTY) {
+            throw new IllegalArgumentException("Reserved key");
+        }
+
+        int slot = findSlot(key);
+        if (slot < 0) {
+            return null;
+        }
+
+        V removedValue = values[slot];
+
+        // Shift following entries of the probing chain back, so that no tombstone is needed
+        int hole = slot;
+        int next = (hole + 1) & mask;
+        while (keys[next] != EMPTY) {
+            int home = slotOf(keys[next]);
+            boolean movable = (hole <= next)? (home <= hole || home > next) :
+                    (home <= hole && home > next);
+            if (movable) {
+                keys[hole] = keys[next];
+                values[hole] = values[next];
+                hole = next;
+            }
+            next = (next + 1) & mask;
+        }
+        keys[hole] = EMPTY;
+        values[hole] = null;
+        size--;
+
+        return removedValue;
+    }
+
+    /**
+     *
+     * @param capacity
+     */
+    private void rehash(int capacity) {
+        long[] oldKeys = keys;
+        V[] oldValues = values;
+        allocate(capacity);
+        for (int i = 0; i < oldKeys.length; ++i) {
+            if (oldKeys[i] != EMPTY) {
+                int slot = slotOf(oldKeys[i]);
+                while (keys[slot] != EMPTY) {
+                    slot = (slot + 1) & mask;
+                }
+                keys[slot] = oldKeys[i];
+                values[slot] = oldValues[i];
+            }
+        }
+    }
+
+    /**
+     *
+     */
+    void clear() {
+        Arrays.fill(keys, EMPTY);
+        Arrays.fill(values, null);
+        size = 0;
+    }
+
+    /**
+     *
+     * @return
+     */
+    int size() {
+        return size;
+    }
+
+    /**
+     *
+     * @return number of slots
+     */
+    int capacity() {
+        return keys.length;
+    }
+
+    /**
+     *
+     * @param slot
+     * @return
+     */
+    boolean isOccupied(int slot) {
+        return keys[slot] != EMPTY;
+    }
+
+    /**
+     *
+     * @param slot
+     * @return
+     */
+    long keyAt(int slot) {
+        return keys[slot];
+    }
+
+    /**
+     *
+     * @param slot
+     * @return
+     */
+    V valueAt(int slot) {
+        return values[slot];
+    }
+
+    private long[] keys;
+    private V[] values;
+    private int mask;
+    private int size;
+    private int resizeThreshold;
+}
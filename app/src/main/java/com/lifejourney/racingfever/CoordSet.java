@@ -0,0 +1,166 @@
+package com.lifejourney.racingfever;
+
+import java.util.Arrays;
+
+/**
+ * Open addressing hash set of coordinates packed by CoordKey.pack. Keys are kept as primitive
+ * long, so adding or testing a coordinate doesn't allocate.
+ */
+class CoordSet {
+
+    private static final long EMPTY = Long.MIN_VALUE;
+
+    CoordSet() {
+        this(16);
+    }
+
+    /**
+     *
+     * @param expectedSize
+     */
+    CoordSet(int expectedSize) {
+        allocate(tableSizeFor(expectedSize));
+    }
+
+    /**
+     *
+     * @param capacity
+     */
+    private void allocate(int capacity) {
+        keys = new long[capacity];
+        Arrays.fill(keys, EMPTY);
+        mask = capacity - 1;
+        resizeThreshold = capacity / 2;
+    }
+
+    /**
+     * Table is kept under half full so that probing sequence is short
+     * @param expectedSize
+     * @return
+     */
+    private static int tableSizeFor(int expectedSize) {
+        int capacity = 16;
+        while (capacity < expectedSize * 2) {
+            capacity <<= 1;
+        }
+        return capacity;
+    }
+
+    /**
+     *
+     * @param key
+     * @return
+     */
+    private int slotOf(long key) {
+        long hash = key * 0x9e3779b97f4a7c15L;
+        return (int) (hash ^ (hash >>> 32)) & mask;
+    }
+
+    /**
+     *
+     * @param key
+     * @return true if key wasn't in the set
+     */
+    boolean add(long key) {
+        if (key == EMPTY) {
+            boolean added = !containsEmptyKey;
+            containsEmptyKey = true;
+            return added;
+        }
+
+        int slot = slotOf(key);
+        while (keys[slot] != EMPTY) {
+            if (keys[slot] == key) {
+                return false;
+            }
+            slot = (slot + 1) & mask;
+        }
+        keys[slot] = key;
+
+        if (++size > resizeThreshold) {
+            rehash(keys.length << 1);
+        }
+        return true;
+    }
+
+    /**
+     *
+     * @param x
+     * @param y
+     * @return true if coordinate wasn't in the set
+     */
+    boolean add(int x, int y) {
+        return add(CoordKey.pack(x, y));
+    }
+
+    /**
+     *
+     * @param key
+     * @return
+     */
+    boolean contains(long key) {
+        if (key == EMPTY) {
+            return containsEmptyKey;
+        }
+
+        int slot = slotOf(key);
+        while (keys[slot] != EMPTY) {
+            if (keys[slot] == key) {
+                return true;
+            }
+            slot = (slot + 1) & mask;
+        }
+        return false;
+    }
+
+    /**
+     *
+     * @param x
+     * @param y
+     * @return
+     */
+    boolean contains(int x, int y) {
+        return contains(CoordKey.pack(x, y));
+    }
+
+    /**
+     *
+     * @param capacity
+     */
+    private void rehash(int capacity) {
+        long[] oldKeys = keys;
+        allocate(capacity);
+        for (long key : oldKeys) {
+            if (key != EMPTY) {
+                int slot = slotOf(key);
+                while (keys[slot] != EMPTY) {
+                    slot = (slot + 1) & mask;
+                }
+                keys[slot] = key;
+            }
+        }
+    }
+
+    /**
+     *
+     */
+    void clear() {
+        Arrays.fill(keys, EMPTY);
+        size = 0;
+        containsEmptyKey = false;
+    }
+
+    /**
+     *
+     * @return
+     */
+    int size() {
+        return size + (containsEmptyKey? 1 : 0);
+    }
+
+    private long[] keys;
+    private int mask;
+    private int size;
+    private int resizeThreshold;
+    private boolean containsEmptyKey;
+}
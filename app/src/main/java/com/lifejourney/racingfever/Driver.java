@@ -5,7 +5,6 @@ import android.util.Log;
 
 import androidx.annotation.NonNull;
 
-import com.lifejourney.engine2d.CollidableObject;
 import com.lifejourney.engine2d.Line;
 import com.lifejourney.engine2d.PointF;
 import com.lifejourney.engine2d.RectF;
@@ -13,8 +12,7 @@ import com.lifejourney.engine2d.Vector2D;
 
 import java.util.ArrayList;
 import java.util.Arrays;
-import java.util.Collections;
-import java.util.Iterator;
+import java.util.Random;
 
 public class Driver implements Comparable<Driver> {
 
@@ -22,21 +20,31 @@ public class Driver implements Comparable<Driver> {
 
     public static class Builder {
         String name;
-        ArrayList<CollidableObject> obstacles;
         ArrayList<Car> cars;
+        ObstacleGrid obstacleGrid;
+        Random random;
+        DriverTuning tuning;
 
         // Optional parameter
         Builder(String name) {
             this.name = name;
         }
-        Builder obstacles(ArrayList<CollidableObject> obstacles) {
-            this.obstacles = obstacles;
+        Builder obstacleGrid(ObstacleGrid obstacleGrid) {
+            this.obstacleGrid = obstacleGrid;
             return this;
         }
         Builder cars(ArrayList<Car> cars) {
             this.cars = cars;
             return this;
         }
+        Builder random(Random random) {
+            this.random = random;
+            return this;
+        }
+        Builder tuning(DriverTuning tuning) {
+            this.tuning = tuning;
+            return this;
+        }
         public Driver build() {
             return new Driver(this);
         }
@@ -74,9 +82,19 @@ public class Driver implements Comparable<Driver> {
 
     private Driver(Builder builder) {
         name = builder.name;
-        obstacles = builder.obstacles;
+        obstacleGrid = builder.obstacleGrid;
         cars = builder.cars;
-        effects = new ArrayList<>();
+        random = (builder.random != null) ? builder.random : new Random();
+        DriverTuning tuning = (builder.tuning != null) ? builder.tuning : DriverTuning.DEFAULT;
+        MIN_WAYPOINT_SEARCH_PERIOD = tuning.minWaypointSearchPeriod;
+        DEFENSIVE_DRIVING_RELEASE_TICKCOUNT = tuning.defensiveDrivingReleaseTickCount;
+        EMERGENCY_ESCAPING_STATE_VELOCITY_LIMIT = tuning.emergencyEscapingStateVelocityLimit;
+        OVERTAKING_ENTER_POSSIBILITY = tuning.overtakingEnterPossibility;
+        AGGRESSIVE_ENTER_POSSIBILITY = tuning.aggressiveEnterPossibility;
+        OVERTAKING_PENALTY_ON_BRAKING = tuning.overtakingPenaltyOnBraking;
+        LANE_CHANGING_GUARD_TIME = tuning.laneChangingGuardTime;
+        neighborObstacles = new int[16];
+        effects = new EffectStack(MODIFIER_SLOT_COUNT);
 
         lastWaypointPassedIndex = 0;
         targetWaypointIndex = STARTING_WAYPOINT_INDEX;
@@ -111,9 +129,14 @@ public class Driver implements Comparable<Driver> {
     }
 
     /**
-     *
+     * Make decision of this tick. It can run concurrently with other drivers as it reads
+     * other cars only from snapshot and writes nothing but this driver and its own car.
+     * Changes to sprites and debug objects are left to commit().
+     * @param snapshot states of cars published at the end of last tick
      */
-    public void update() {
+    public void update(WorldSnapshot snapshot) {
+        this.snapshot = snapshot;
+        drivenState = null;
         if (myCar == null) {
             return;
         }
@@ -148,6 +171,55 @@ public class Driver implements Comparable<Driver> {
         drive();
     }
 
+    /**
+     * Apply the result of update() which touches engine objects. It should be called from
+     * single thread after all drivers are updated.
+     */
+    void commit() {
+        if (myCar == null || drivenState == null) {
+            return;
+        }
+
+        switch (drivenState) {
+            case CRUISING:
+                if (myCar.isDebugMode()) {
+                    myCar.circleShape.setColor(1.0f, 1.0f, 1.0f);
+                }
+                myCar.setSpriteType(Car.SpriteType.NORMAL);
+                break;
+            case DEFENSIVE_DRIVING:
+                if (myCar.isDebugMode()) {
+                    myCar.circleShape.setColor(0.0f, 1.0f, 0.0f);
+                }
+                myCar.setSpriteType(Car.SpriteType.NORMAL);
+                break;
+            case AGGRESSIVE_DRIVING:
+                if (myCar.isDebugMode()) {
+                    myCar.circleShape.setColor(0.0f, 1.0f, 1.0f);
+                }
+                myCar.setSpriteType(Car.SpriteType.ACCELERATE);
+                break;
+            case EMERGENCY_ESCAPING:
+                if (myCar.isDebugMode()) {
+                    myCar.circleShape.setColor(1.0f, 0.0f, 1.0f);
+                }
+                myCar.setSpriteType(Car.SpriteType.ACCELERATE);
+                break;
+            case OVERTAKING:
+                if (myCar.isDebugMode()) {
+                    myCar.circleShape.setColor(1.0f, 0.0f, 0.0f);
+                }
+                myCar.setSpriteType(Car.SpriteType.ACCELERATE);
+                break;
+            default:
+                break;
+        }
+
+        if (debugMode) {
+            commitDebugLines();
+        }
+    }
+
     /**
      *
      * @param car
@@ -208,20 +280,45 @@ public class Driver implements Comparable<Driver> {
     }
 
     /**
-     *
-     * @param other
-     * @return
+     * Compute ranking progress of this tick, which is arc length driven along the optimal lane
+     * counting laps. Drivers are ranked in descending order of it.
+     * Car is projected on the optimal lane around last passed waypoint, and the arc length is
+     * taken relative to the waypoint so that it's continuous across the finish line.
      */
-    int compareRanking(Driver other) {
-        if (other.getLap() < this.getLap()) {
-            return -1;
+    void updateRankingProgress() {
+        if (myCar == null) {
+            rankingProgress = Double.NEGATIVE_INFINITY;
+            return;
         }
-        else if (other.getLap() > this.getLap()) {
-            return 1;
+
+        PackedLane lane = track.getPackedLane(Track.LaneSelection.INVALID_LANE);
+        int waypointCount = lane.size();
+        int fromIndex = (lastWaypointPassedIndex - RANKING_SEARCH_BEHIND + waypointCount) %
+                waypointCount;
+        PointF position = myCar.getPosition();
+        double lanePosition = lane.project(position.x, position.y, fromIndex,
+                RANKING_SEARCH_BEHIND + RANKING_SEARCH_AHEAD);
+
+        float totalLength = lane.getTotalLength();
+        float lastPassedArcLength = lane.getArcLength(lastWaypointPassedIndex);
+        float arcLengthFromLastPassed = lane.getArcLength(lanePosition) - lastPassedArcLength;
+        if (arcLengthFromLastPassed > totalLength / 2) {
+            arcLengthFromLastPassed -= totalLength;
         }
-        else {
-            return comparePositionAhead(other);
+        else if (arcLengthFromLastPassed < -totalLength / 2) {
+            arcLengthFromLastPassed += totalLength;
         }
+
+        rankingProgress = (double) lap * totalLength + lastPassedArcLength +
+                arcLengthFromLastPassed;
+    }
+
+    /**
+     *
+     * @return progress computed by updateRankingProgress
+     */
+    double getRankingProgress() {
+        return rankingProgress;
     }
 
     /**
@@ -246,15 +343,15 @@ public class Driver implements Comparable<Driver> {
             return 1;
         }
         else {
-            int waypointCount = track.getLane(Track.LaneSelection.INVALID_LANE).size();
-            int nextPassingWaypointIndex = (thisLastWaypointIndex + 1) % waypointCount;
-            PointF nextWaypointPt = track.getWaypointRegion(Track.LaneSelection.INVALID_LANE,
-                    nextPassingWaypointIndex).center();
+            PackedLane lane = track.getPackedLane(Track.LaneSelection.INVALID_LANE);
+            int nextPassingWaypointIndex = (thisLastWaypointIndex + 1) % lane.size();
+            PointF otherPosition = other.myCar.getPosition();
+            PointF thisPosition = this.myCar.getPosition();
 
-            float distanceSqToNextWaypointForOther =
-                    other.myCar.getPosition().distanceSq(nextWaypointPt);
-            float distanceSqToNextWaypointForThis =
-                    this.myCar.getPosition().distanceSq(nextWaypointPt);
+            float distanceSqToNextWaypointForOther = lane.getDistanceSqToCenter(
+                    nextPassingWaypointIndex, otherPosition.x, otherPosition.y);
+            float distanceSqToNextWaypointForThis = lane.getDistanceSqToCenter(
+                    nextPassingWaypointIndex, thisPosition.x, thisPosition.y);
 
             return Float.compare(distanceSqToNextWaypointForThis,
                     distanceSqToNextWaypointForOther);
@@ -300,7 +397,8 @@ public class Driver implements Comparable<Driver> {
      *
      */
     private void updateLastPassedWaypoint() {
-        int waypointCount = track.getLane(laneSelection).size();
+        PackedLane lane = track.getPackedLane(laneSelection);
+        int waypointCount = lane.size();
         int numberOfWaypointsToTest;
         if (targetWaypointIndex < lastWaypointPassedIndex) {
             numberOfWaypointsToTest = waypointCount -
@@ -310,29 +408,15 @@ public class Driver implements Comparable<Driver> {
             numberOfWaypointsToTest = targetWaypointIndex - lastWaypointPassedIndex + 1;
         }
 
+        // Project car on segments from last passed waypoint to target. Region of a waypoint
+        // starts about halfway along the segment to it, so the waypoint is passed from there.
         PointF position = myCar.getPosition();
-        float nearestDistance = Float.MAX_VALUE;
-        int nearestWaypointIndex = -1;
-        for (int i = numberOfWaypointsToTest - 1; i >= 0; --i) {
-            int currentWaypointIndex = (lastWaypointPassedIndex + i) % waypointCount;
-            RectF region = track.getWaypointRegion(laneSelection, currentWaypointIndex);
-
-            if (region.includes(position)) {
-                lastWaypointPassedIndex = currentWaypointIndex;
-                return;
-            }
-            else {
-                float distance = region.center().distance(position);
-                if (distance < nearestDistance) {
-                    nearestDistance = distance;
-                    nearestWaypointIndex = currentWaypointIndex;
-                }
-            }
-        }
-
-        if (nearestWaypointIndex != -1) {
-            lastWaypointPassedIndex = nearestWaypointIndex;
-        }
+        double lanePosition = lane.project(position.x, position.y, lastWaypointPassedIndex,
+                numberOfWaypointsToTest);
+        int passedOffset = ((int) Math.floor(lanePosition + 0.5) - lastWaypointPassedIndex +
+                waypointCount) % waypointCount;
+        lastWaypointPassedIndex = (lastWaypointPassedIndex +
+                Math.min(passedOffset, numberOfWaypointsToTest - 1)) % waypointCount;
     }
 
     /**
@@ -347,8 +431,6 @@ public class Driver implements Comparable<Driver> {
                                                  int currentIndex,
                                                  int targetIndex,
                                                  int maxSearchableScore) {
-        ArrayList<Integer> candidatesWaypoints = new ArrayList<>();
-
         int maxSearchableCount =
                 track.getWaypointCountWhichCanBeSearched(laneSelection, currentIndex, maxSearchableScore);
 
@@ -357,19 +439,17 @@ public class Driver implements Comparable<Driver> {
             return -1;
         }
 
-        // Search through waypoints
-        int waypointCount = track.getLane(laneSelection).size();
-        for (int i = 1; i < maxSearchableCount; ++i) {
-            candidatesWaypoints.add((currentIndex + i) % waypointCount);
-        }
-
-        // Raytracing waypoints to find possible one
-        Collections.reverse(candidatesWaypoints);
-        for (int waypointIndex : candidatesWaypoints) {
-            PointF targetCenter = track.getWaypointRegion(laneSelection, waypointIndex).center();
-            float distanceToWaypoint = targetCenter.distance(myCar.getPosition());
+        // Raytracing waypoints from the farthest one to find possible one
+        PackedLane lane = track.getPackedLane(laneSelection);
+        int waypointCount = lane.size();
+        PointF position = myCar.getPosition();
+        for (int i = maxSearchableCount - 1; i >= 1; --i) {
+            int waypointIndex = (currentIndex + i) % waypointCount;
+            float distanceToWaypoint =
+                    lane.getDistanceToCenter(waypointIndex, position.x, position.y);
 
-            if (track.getNearestDistanceToRoadBlock(myCar.getPosition(), targetCenter) >=
+            if (track.getNearestDistanceToRoadBlock(position.x, position.y,
+                    lane.getCenterX(waypointIndex), lane.getCenterY(waypointIndex)) >=
                     distanceToWaypoint) {
                 return waypointIndex;
             }
@@ -451,52 +531,74 @@ public class Driver implements Comparable<Driver> {
      * @param weight
      */
     private void driveAlongTheWay(float weight) {
-        weight += (Math.random()%0.2f) - 0.1f;
+        weight += (random.nextDouble()%0.2f) - 0.1f;
         myCar.seek(targetRegion.center(), weight);
     }
 
     /**
-     *
+     * Find obstacles within maxForwardDistance in front of the car (within frontAngle from
+     * moving direction), or within maxBackwardDistance elsewhere. Result is kept in
+     * neighborObstacles until the next call.
      * @param frontAngle
      * @param maxForwardDistance
      * @param maxBackwardDistance
-     * @return
+     * @return number of neighbor obstacles
      */
-    private ArrayList<CollidableObject> getNeighborObstacles(float frontAngle,
-                                                             float maxForwardDistance,
-                                                             float maxBackwardDistance) {
-
-        ArrayList<CollidableObject> neighborObstacles = new ArrayList<>();
+    private int getNeighborObstacles(float frontAngle, float maxForwardDistance,
+                                     float maxBackwardDistance) {
+        if (snapshot == null) {
+            return 0;
+        }
 
-        if (obstacles == null) {
-            return neighborObstacles;
+        if (neighborObstacles.length < snapshot.size()) {
+            neighborObstacles = new int[snapshot.size()];
         }
 
-        Vector2D myPositionVector = myCar.getPositionVector();
+        PointF myPosition = myCar.getPosition();
+        float myX = myPosition.x, myY = myPosition.y;
 
-        for (CollidableObject obstacle: obstacles) {
-            if (obstacle == myCar) {
-                continue;
+        // Narrow down candidates with spatial index if it's available
+        int candidateCount;
+        if (obstacleGrid != null) {
+            candidateCount = obstacleGrid.query(myX, myY,
+                    Math.max(maxForwardDistance, maxBackwardDistance), neighborObstacles);
+        }
+        else {
+            candidateCount = snapshot.size();
+            for (int i = 0; i < candidateCount; ++i) {
+                neighborObstacles[i] = i;
             }
+        }
 
-            Vector2D offset = obstacle.getPositionVector().subtract(myPositionVector);
-            Vector2D unitOffset = offset.clone().normalize();
-            if (myCar.getForwardVector().angle(unitOffset) < frontAngle) {
-                if (offset.length() <= maxForwardDistance) {
-                    neighborObstacles.add(obstacle);
-                    if (frontAngle == 10.0f) {
-                        Log.e(LOG_TAG, frontAngle + " " + offset.length() + " " + maxForwardDistance);
-                    }
-                }
+        // Angle between velocity and offset is less than frontAngle if
+        // dot(velocity, offset) > cos(frontAngle) * |velocity| * |offset|
+        Vector2D velocity = myCar.getVelocity();
+        float velocityX = velocity.x, velocityY = velocity.y;
+        float velocityScalar = velocity.length();
+        float cosFrontAngle = (float) Math.cos(Math.toRadians(frontAngle));
+        float maxForwardDistanceSq = maxForwardDistance * maxForwardDistance;
+        float maxBackwardDistanceSq = maxBackwardDistance * maxBackwardDistance;
+
+        // Compact candidates in place
+        int neighborCount = 0;
+        for (int c = 0; c < candidateCount; ++c) {
+            int obstacle = neighborObstacles[c];
+            if (snapshot.getCar(obstacle) == myCar) {
+                continue;
             }
-            else {
-                if (offset.length() <= maxBackwardDistance) {
-                    neighborObstacles.add(obstacle);
-                }
+
+            float offsetX = snapshot.getX(obstacle) - myX;
+            float offsetY = snapshot.getY(obstacle) - myY;
+            float offsetSq = offsetX * offsetX + offsetY * offsetY;
+            float lengthProduct = velocityScalar * (float) Math.sqrt(offsetSq);
+            boolean front = (lengthProduct == 0.0f ||
+                    velocityX * offsetX + velocityY * offsetY > cosFrontAngle * lengthProduct);
+            if (offsetSq <= (front ? maxForwardDistanceSq : maxBackwardDistanceSq)) {
+                neighborObstacles[neighborCount++] = obstacle;
             }
         }
 
-        return neighborObstacles;
+        return neighborCount;
     }
 
     /**
@@ -507,15 +609,16 @@ public class Driver implements Comparable<Driver> {
         float distanceUnit = myCar.getShape().getRadius() * 2; // myCar.getMovingDistanceForOneUpdate();
         float maxForwardDistance = distanceUnit * 3; // myCar.getMovingDistanceForOneUpdate() * 6;
         float maxBackwardDistance = 0;
-        ArrayList<CollidableObject> neighborObstacles = getNeighborObstacles(180.0f,
+        int neighborCount = getNeighborObstacles(180.0f,
                 maxForwardDistance, maxBackwardDistance);
 
-        if (neighborObstacles.size() == 0) {
+        if (neighborCount == 0) {
             return Car.AvoidingState.NO_OBSTACLE;
         }
 
-        return myCar.avoidObstacles(neighborObstacles, maxForwardDistance,
-                maxBackwardDistance, track, avoidingPossibility, brakingPossibility);
+        return myCar.avoidObstacles(snapshot, neighborObstacles, neighborCount,
+                maxForwardDistance, maxBackwardDistance, track, avoidingPossibility,
+                brakingPossibility, random);
     }
 
     /**
@@ -529,24 +632,21 @@ public class Driver implements Comparable<Driver> {
         // Check if it can go to overtaking state
         float overDrivingPossibility = OVERTAKING_ENTER_POSSIBILITY;
         float maxDistance = myCar.getShape().getRadius() * 2 * 4; //myCar.getMovingDistanceForOneUpdate() * 5;
-        CollidableObject frontObstacle = getNearestFrontObstacle(maxDistance);
-        if (frontObstacle == null) {
+        int frontObstacle = getNearestFrontObstacle(maxDistance);
+        if (frontObstacle == -1) {
             overDrivingPossibility += OVERTAKING_ENTER_POSSIBILITY;
         } else {
-            if (frontObstacle instanceof Car) {
-                Car frontCar = (Car) frontObstacle;
-                if (frontCar.getVelocity().length() < myCar.getMaxVelocity()) {
-                    overDrivingPossibility += OVERTAKING_ENTER_POSSIBILITY;
-                }
-                if (frontCar.getEnginePower() / frontCar.getMass() <
-                        myCar.getEnginePower() / myCar.getMass()){
-                    overDrivingPossibility += OVERTAKING_ENTER_POSSIBILITY;
-                }
+            if (snapshot.getVelocity(frontObstacle).length() < myCar.getMaxVelocity()) {
+                overDrivingPossibility += OVERTAKING_ENTER_POSSIBILITY;
+            }
+            if (snapshot.getPowerToMass(frontObstacle) <
+                    myCar.getEnginePower() / myCar.getMass()){
+                overDrivingPossibility += OVERTAKING_ENTER_POSSIBILITY;
             }
         }
 
-        if (Math.random() < overDrivingPossibility) {
-            if (frontObstacle == null) {
+        if (random.nextDouble() < overDrivingPossibility) {
+            if (frontObstacle == -1) {
                 transition(State.OVERTAKING);
             } else {
                 Track.LaneSelection laneSelection = chooseAlternativeLane();
@@ -566,14 +666,16 @@ public class Driver implements Comparable<Driver> {
      */
     private boolean keepDistanceFromFrontVehicle(float keepWeight) {
         float maxDistance = myCar.getShape().getRadius() * 2 * 2; // myCar.getMovingDistanceForOneUpdate() * 6;
-        CollidableObject frontObstacle = getNearestFrontObstacle(maxDistance);
-        if (frontObstacle instanceof Car) {
+        int frontObstacle = getNearestFrontObstacle(maxDistance);
+        if (frontObstacle != -1) {
             float currentVelocity = myCar.getVelocity().length();
-            float obstacleVelocity = frontObstacle.getVelocity().dot(myCar.getForwardVector());
+            float obstacleVelocity =
+                    snapshot.getVelocity(frontObstacle).dot(myCar.getForwardVector());
             float velocityLimit = obstacleVelocity * keepWeight;
             myCar.getVelocity().truncate(velocityLimit);
             if (currentVelocity < obstacleVelocity) {
-                float forceLimit = frontObstacle.getForce().dot(myCar.getForwardVector()) * keepWeight;
+                float forceLimit =
+                        snapshot.getForce(frontObstacle).dot(myCar.getForwardVector()) * keepWeight;
                 myCar.getForce().truncate(forceLimit);
             }
             return true;
@@ -596,12 +698,6 @@ public class Driver implements Comparable<Driver> {
      *
      */
     private void onCruising() {
-        if (myCar.isDebugMode()) {
-            myCar.circleShape.setColor(1.0f, 1.0f, 1.0f);
-        }
-
-        myCar.setSpriteType(Car.SpriteType.NORMAL);
-
         // Update waypoint target
         updateWaypoint();
 
@@ -626,12 +722,6 @@ public class Driver implements Comparable<Driver> {
      *
      */
     private void onDefensiveDriving() {
-        if (myCar.isDebugMode()) {
-            myCar.circleShape.setColor(0.0f, 1.0f, 0.0f);
-        }
-
-        myCar.setSpriteType(Car.SpriteType.NORMAL);
-
         // Update waypoint target
         updateWaypoint();
 
@@ -662,12 +752,6 @@ public class Driver implements Comparable<Driver> {
      *
      */
     private void onAggressiveDriving() {
-        if (myCar.isDebugMode()) {
-            myCar.circleShape.setColor(0.0f, 1.0f, 1.0f);
-        }
-
-        myCar.setSpriteType(Car.SpriteType.ACCELERATE);
-
         // Update waypoint target
         updateWaypoint();
 
@@ -686,12 +770,6 @@ public class Driver implements Comparable<Driver> {
      *
      */
     private void onEmergencyEscaping() {
-        if (myCar.isDebugMode()) {
-            myCar.circleShape.setColor(1.0f, 0.0f, 1.0f);
-        }
-
-        myCar.setSpriteType(Car.SpriteType.ACCELERATE);
-
         // Update waypoint target
         updateWaypoint();
 
@@ -704,12 +782,6 @@ public class Driver implements Comparable<Driver> {
      */
     @SuppressLint("Assert")
     private void onOvertaking() {
-        if (myCar.isDebugMode()) {
-            myCar.circleShape.setColor(1.0f, 0.0f, 0.0f);
-        }
-
-        myCar.setSpriteType(Car.SpriteType.ACCELERATE);
-
         // If car collided, reduce tick count
         if (myCar.isCollided()) {
             tickTransitionTime(OVERTAKING_PENALTY_ON_BRAKING);
@@ -735,7 +807,7 @@ public class Driver implements Comparable<Driver> {
             }
 
             //  Go aggresive
-            if (Math.random() < AGGRESSIVE_ENTER_POSSIBILITY) {
+            if (random.nextDouble() < AGGRESSIVE_ENTER_POSSIBILITY) {
                 transition(State.AGGRESSIVE_DRIVING);
             }
         }
@@ -752,16 +824,17 @@ public class Driver implements Comparable<Driver> {
         float distanceUnit = myCar.getShape().getRadius() * 2; //myCar.getMovingDistanceForOneUpdate();
         float maxForwardDistance = distanceUnit * 3;
         float maxBackwardDistance = distanceUnit * 2;
-        ArrayList<CollidableObject> obstacles = getNeighborObstacles(180.0f,
+        int neighborCount = getNeighborObstacles(180.0f,
                 maxForwardDistance, maxBackwardDistance);
 
         // Check if obstacle blocks the way
         float nearestDistance = Float.MAX_VALUE;
         float targetDistance = targetPt.distance(myCar.getPosition());
         float direction = targetPt.vectorize().subtract(myCar.getPositionVector()).direction();
-        for (CollidableObject obstacle : obstacles) {
-            float distance = myCar.checkObstacleCanBeCollided(obstacle, direction, targetDistance,
-                    targetDistance);
+        Vector2D step = myCar.getVirtualStep(direction);
+        for (int i = 0; i < neighborCount; ++i) {
+            float distance = myCar.checkObstacleCanBeCollided(snapshot, neighborObstacles[i],
+                    step.x, step.y, targetDistance, targetDistance);
             if (distance < nearestDistance) {
                 nearestDistance = distance;
             }
@@ -778,11 +851,12 @@ public class Driver implements Comparable<Driver> {
     /**
      *
      * @param direction
-     * @param obstacles
+     * @param obstacles indices of obstacles in snapshot
+     * @param obstacleCount
      * @return
      */
-    private Track.LaneSelection checkLaneIsMovable(LaneDirection direction,
-                                                   ArrayList<CollidableObject> obstacles) {
+    private Track.LaneSelection checkLaneIsMovable(LaneDirection direction, int[] obstacles,
+                                                   int obstacleCount) {
 
         Track.LaneSelection adjacentLane = laneSelection;
         int newTargetWaypointIndex;
@@ -809,8 +883,8 @@ public class Driver implements Comparable<Driver> {
                 return Track.LaneSelection.INVALID_LANE;
             }
 
-            if (!track.getWaypointPositionInMapCoord(laneSelection, newTargetWaypointIndex).equals(
-                    track.getWaypointPositionInMapCoord(adjacentLane, newTargetWaypointIndex))) {
+            if (!track.getPackedLane(laneSelection).isSamePosition(newTargetWaypointIndex,
+                    track.getPackedLane(adjacentLane), newTargetWaypointIndex)) {
                 break;
             }
 
@@ -818,23 +892,27 @@ public class Driver implements Comparable<Driver> {
                     laneSelection.toString() + " " + adjacentLane.toString());
         }
 
-        PointF targetPt = track.getWaypointRegion(adjacentLane, newTargetWaypointIndex).center();
+        PointF position = myCar.getPosition();
+        float targetX = track.getWaypointCenterX(adjacentLane, newTargetWaypointIndex);
+        float targetY = track.getWaypointCenterY(adjacentLane, newTargetWaypointIndex);
 
-        float targetDistance = targetPt.distance(myCar.getPosition());
-        float targetDirection = targetPt.vectorize().subtract(myCar.getPositionVector()).direction();
+        float targetDistance = track.getPackedLane(adjacentLane).getDistanceToCenter(
+                newTargetWaypointIndex, position.x, position.y);
+        float targetDirection = new Vector2D(targetX - position.x, targetY - position.y).direction();
 
         // Check road block
-        float distanceToRoadBlock = track.getNearestDistanceToRoadBlock(myCar.getPosition(),
+        float distanceToRoadBlock = track.getNearestDistanceToRoadBlock(position,
                 targetDirection, targetDistance);
         if (distanceToRoadBlock > 0.0f && distanceToRoadBlock < Float.MAX_VALUE) {
             return Track.LaneSelection.INVALID_LANE;
         }
 
         // Check if obstacle blocks the way
+        Vector2D step = myCar.getVirtualStep(targetDirection);
         float nearestDistance = Float.MAX_VALUE;
-        for (CollidableObject obstacle : obstacles) {
-            float distance = myCar.checkObstacleCanBeCollided(obstacle, targetDirection, targetDistance,
-                    targetDistance);
+        for (int i = 0; i < obstacleCount; ++i) {
+            float distance = myCar.checkObstacleCanBeCollided(snapshot, obstacles[i],
+                    step.x, step.y, targetDistance, targetDistance);
             if (distance < nearestDistance) {
                 nearestDistance = distance;
             }
@@ -846,37 +924,42 @@ public class Driver implements Comparable<Driver> {
     /**
      *
      * @param laneSelection
-     * @param obstacles
+     * @param obstacles indices of obstacles in snapshot
+     * @param obstacleCount
      * @return
      */
-    private boolean checkLaneIsMovable(Track.LaneSelection laneSelection,
-                                       ArrayList<CollidableObject> obstacles) {
+    private boolean checkLaneIsMovable(Track.LaneSelection laneSelection, int[] obstacles,
+                                       int obstacleCount) {
         // Check next waypoint target on this path
         int currentWaypointIndexOnPath = lastWaypointPassedIndex;
         int newTargetWaypointIndex = findSuitableWaypointForNewTarget(laneSelection,
                 currentWaypointIndexOnPath, currentWaypointIndexOnPath, 2);
         if (newTargetWaypointIndex == -1) {
             newTargetWaypointIndex =
-                    (currentWaypointIndexOnPath + 1) % track.getLane(laneSelection).size();
+                    (currentWaypointIndexOnPath + 1) % track.getPackedLane(laneSelection).size();
         }
         //int newTargetWaypointIndex = (currentWaypointIndexOnPath + 1) % track.getPath(selection).size();
-        PointF targetPt = track.getWaypointRegion(laneSelection, newTargetWaypointIndex).center();
+        PointF position = myCar.getPosition();
+        float targetX = track.getWaypointCenterX(laneSelection, newTargetWaypointIndex);
+        float targetY = track.getWaypointCenterY(laneSelection, newTargetWaypointIndex);
 
-        float targetDistance = targetPt.distance(myCar.getPosition());
-        float direction = targetPt.vectorize().subtract(myCar.getPositionVector()).direction();
+        float targetDistance = track.getPackedLane(laneSelection).getDistanceToCenter(
+                newTargetWaypointIndex, position.x, position.y);
+        float direction = new Vector2D(targetX - position.x, targetY - position.y).direction();
 
         // Check road block
-        float distanceToRoadBlock = track.getNearestDistanceToRoadBlock(myCar.getPosition(),
+        float distanceToRoadBlock = track.getNearestDistanceToRoadBlock(position,
                 direction, targetDistance);
         if (distanceToRoadBlock > 0.0f && distanceToRoadBlock < Float.MAX_VALUE) {
             return false;
         }
 
         // Check if obstacle blocks the way
+        Vector2D step = myCar.getVirtualStep(direction);
         float nearestDistance = Float.MAX_VALUE;
-        for (CollidableObject obstacle : obstacles) {
-            float distance = myCar.checkObstacleCanBeCollided(obstacle, direction, targetDistance,
-                    targetDistance);
+        for (int i = 0; i < obstacleCount; ++i) {
+            float distance = myCar.checkObstacleCanBeCollided(snapshot, obstacles[i],
+                    step.x, step.y, targetDistance, targetDistance);
             if (distance < nearestDistance) {
                 nearestDistance = distance;
             }
@@ -897,11 +980,11 @@ public class Driver implements Comparable<Driver> {
         float distanceUnit = myCar.getShape().getRadius() * 2; // myCar.getMovingDistanceForOneUpdate();
         float maxForwardDistance = distanceUnit * 4;
         float maxBackwardDistance = distanceUnit * 2;
-        ArrayList<CollidableObject> neighborObstacles = getNeighborObstacles(180.0f,
+        int neighborCount = getNeighborObstacles(180.0f,
                 maxForwardDistance, maxBackwardDistance);
 
         // If there's no neighbors, take middle lane
-        if (neighborObstacles.size() == 0) {
+        if (neighborCount == 0) {
             Log.e(LOG_TAG, name + " alternative lane empty");
             return Track.LaneSelection.MIDDLE_LANE;
         }
@@ -909,21 +992,18 @@ public class Driver implements Comparable<Driver> {
         // Count vehicles on the each lanes
         int[] vehicleCountOnLane = new int[Track.LaneSelection.values().length];
         Arrays.fill(vehicleCountOnLane, 0);
-        for (CollidableObject obstacle : neighborObstacles) {
-            if (obstacle instanceof Car) {
-                Car neighborCar = (Car) obstacle;
-                Driver neighborDriver = neighborCar.getDriver();
-
-                if (neighborDriver != null) {
-                    Track.LaneSelection selection = neighborDriver.getPathSelection();
-                    vehicleCountOnLane[selection.ordinal()]++;
-                }
+        for (int i = 0; i < neighborCount; ++i) {
+            int lane = snapshot.getLane(neighborObstacles[i]);
+            if (lane != WorldSnapshot.NO_LANE) {
+                vehicleCountOnLane[lane]++;
             }
         }
 
         // Check adjacent lanes are movable first
-        Track.LaneSelection leftAdjacentLane = checkLaneIsMovable(LaneDirection.Left, neighborObstacles);
-        Track.LaneSelection rightAdjacentLane = checkLaneIsMovable(LaneDirection.Right, neighborObstacles);
+        Track.LaneSelection leftAdjacentLane =
+                checkLaneIsMovable(LaneDirection.Left, neighborObstacles, neighborCount);
+        Track.LaneSelection rightAdjacentLane =
+                checkLaneIsMovable(LaneDirection.Right, neighborObstacles, neighborCount);
         boolean leftAdjacentLaneMovable = (leftAdjacentLane != Track.LaneSelection.INVALID_LANE),
                 rightAdjacentLaneMovable = (rightAdjacentLane != Track.LaneSelection.INVALID_LANE);
 
@@ -981,7 +1061,7 @@ public class Driver implements Comparable<Driver> {
         float distanceUnit = myCar.getShape().getRadius() * 4; // myCar.getMovingDistanceForOneUpdate();
         float maxForwardDistance = distanceUnit * 3;
         float maxBackwardDistance = distanceUnit * 2;
-        ArrayList<CollidableObject> neighborObstacles = getNeighborObstacles(180.0f,
+        int neighborCount = getNeighborObstacles(180.0f,
                 maxForwardDistance, maxBackwardDistance);
 
         // Check adjacent lanes are movable first
@@ -989,7 +1069,7 @@ public class Driver implements Comparable<Driver> {
             if (laneSelection.ordinal() > 1) {
                 Track.LaneSelection leftAdjacentLane =
                         Track.LaneSelection.values()[laneSelection.ordinal()-1];
-                if (checkLaneIsMovable(leftAdjacentLane, neighborObstacles)) {
+                if (checkLaneIsMovable(leftAdjacentLane, neighborObstacles, neighborCount)) {
                     return leftAdjacentLane;
                 }
             }
@@ -998,7 +1078,7 @@ public class Driver implements Comparable<Driver> {
             if (laneSelection.ordinal() > 1) {
                 Track.LaneSelection leftAdjacentLane =
                         Track.LaneSelection.values()[laneSelection.ordinal()-1];
-                if (checkLaneIsMovable(leftAdjacentLane, neighborObstacles)) {
+                if (checkLaneIsMovable(leftAdjacentLane, neighborObstacles, neighborCount)) {
                     return leftAdjacentLane;
                 }
             }
@@ -1010,22 +1090,21 @@ public class Driver implements Comparable<Driver> {
     /**
      *
      * @param maxDistance
-     * @return
+     * @return index of obstacle in snapshot, -1 if there's no obstacle
      */
-    private CollidableObject getNearestFrontObstacle(float maxDistance) {
+    private int getNearestFrontObstacle(float maxDistance) {
         // Get front obstacles
-        ArrayList<CollidableObject> frontObstacles = getNeighborObstacles(20.0f,
-                maxDistance, 0);
-
-        if (frontObstacles.size() == 0) {
-            return null;
-        }
+        int frontCount = getNeighborObstacles(20.0f, maxDistance, 0);
 
-        // Find nearest one
+        // Find nearest one, distances are compared squared
+        PointF myPosition = myCar.getPosition();
         float nearestDistance = Float.MAX_VALUE;
-        CollidableObject nearestObstacle = null;
-        for (CollidableObject obstacle: frontObstacles) {
-            float distance = obstacle.getPosition().distance(myCar.getPosition());
+        int nearestObstacle = -1;
+        for (int i = 0; i < frontCount; ++i) {
+            int obstacle = neighborObstacles[i];
+            float offsetX = snapshot.getX(obstacle) - myPosition.x;
+            float offsetY = snapshot.getY(obstacle) - myPosition.y;
+            float distance = offsetX * offsetX + offsetY * offsetY;
             if (distance < nearestDistance) {
                 nearestDistance = distance;
                 nearestObstacle = obstacle;
@@ -1039,53 +1118,9 @@ public class Driver implements Comparable<Driver> {
      *
      */
     private void drive() {
-        // Debugging
-        RectF lastPassedRegion = track.getWaypointRegion(laneSelection, lastWaypointPassedIndex);
-        RectF targetRegion = track.getWaypointRegion(laneSelection, targetWaypointIndex);
-        if (debugMode) {
-            if (waypointLine == null) {
-                waypointLine = new Line.Builder(myCar.getPosition(), targetRegion.center())
-                        .color(0.0f, 1.0f, 1.0f, 1.0f).visible(true).build();
-                lastPassedWaypointLineL = new Line.Builder(lastPassedRegion.topLeft(), lastPassedRegion.bottomLeft())
-                        .color(0.0f, 1.0f, 1.0f, 1.0f).visible(true).build();
-                lastPassedWaypointLineR = new Line.Builder(lastPassedRegion.topRight(), lastPassedRegion.bottomRight())
-                        .color(0.0f, 1.0f, 1.0f, 1.0f).visible(true).build();
-                lastPassedWaypointLineT = new Line.Builder(lastPassedRegion.topLeft(), lastPassedRegion.topRight())
-                        .color(0.0f, 1.0f, 1.0f, 1.0f).visible(true).build();
-                lastPassedWaypointLineB = new Line.Builder(lastPassedRegion.bottomLeft(), lastPassedRegion.bottomRight())
-                        .color(0.0f, 1.0f, 1.0f, 1.0f).visible(true).build();
-                targetWaypointLineL = new Line.Builder(targetRegion.topLeft(), targetRegion.bottomLeft())
-                        .color(1.0f, 1.0f, 0.0f, 1.0f).visible(true).build();
-                targetWaypointLineR = new Line.Builder(targetRegion.topRight(), targetRegion.bottomRight())
-                        .color(1.0f, 1.0f, 0.0f, 1.0f).visible(true).build();
-                targetWaypointLineT = new Line.Builder(targetRegion.topLeft(), targetRegion.topRight())
-                        .color(1.0f, 1.0f, 0.0f, 1.0f).visible(true).build();
-                targetWaypointLineB = new Line.Builder(targetRegion.bottomLeft(), targetRegion.bottomRight())
-                        .color(1.0f, 1.0f, 0.0f, 1.0f).visible(true).build();
-            } else {
-                waypointLine.setPoints(myCar.getPosition(), targetRegion.center());
-                lastPassedWaypointLineL.setPoints(lastPassedRegion.topLeft(), lastPassedRegion.bottomLeft());
-                lastPassedWaypointLineR.setPoints(lastPassedRegion.topRight(), lastPassedRegion.bottomRight());
-                lastPassedWaypointLineT.setPoints(lastPassedRegion.topLeft(), lastPassedRegion.topRight());
-                lastPassedWaypointLineB.setPoints(lastPassedRegion.bottomLeft(), lastPassedRegion.bottomRight());
-                targetWaypointLineL.setPoints(targetRegion.topLeft(), targetRegion.bottomLeft());
-                targetWaypointLineR.setPoints(targetRegion.topRight(), targetRegion.bottomRight());
-                targetWaypointLineT.setPoints(targetRegion.topLeft(), targetRegion.topRight());
-                targetWaypointLineB.setPoints(targetRegion.bottomLeft(), targetRegion.bottomRight());
-            }
-            //waypointLine.commit();
-            lastPassedWaypointLineL.commit();
-            lastPassedWaypointLineR.commit();
-            lastPassedWaypointLineT.commit();
-            lastPassedWaypointLineB.commit();
-            targetWaypointLineL.commit();
-            targetWaypointLineR.commit();
-            targetWaypointLineT.commit();
-            targetWaypointLineB.commit();
-        }
-
         // Run state machine
         State prevState = state;
+        drivenState = state;
         switch (state) {
             case STOP:
                 break;
@@ -1118,6 +1153,71 @@ public class Driver implements Comparable<Driver> {
         }
     }
 
+    /**
+     * Set corners of waypoint region to points in order of top left, top right, bottom left
+     * and bottom right
+     * @param laneSelection
+     * @param waypointIndex
+     * @param corners
+     */
+    private void updateRegionCorners(Track.LaneSelection laneSelection, int waypointIndex,
+                                     PointF[] corners) {
+        RectF region = track.getWaypointRegion(laneSelection, waypointIndex, debugRegion);
+        corners[0].x = region.left();
+        corners[0].y = region.top();
+        corners[1].x = region.right();
+        corners[1].y = region.top();
+        corners[2].x = region.left();
+        corners[2].y = region.bottom();
+        corners[3].x = region.right();
+        corners[3].y = region.bottom();
+    }
+
+    /**
+     *
+     */
+    private void commitDebugLines() {
+        // Lines keep points given, so points are updated in place instead of allocating them
+        // every tick
+        updateRegionCorners(laneSelection, lastWaypointPassedIndex, lastPassedRegionCorners);
+        updateRegionCorners(laneSelection, targetWaypointIndex, targetRegionCorners);
+        targetRegionCenter.x = track.getWaypointCenterX(laneSelection, targetWaypointIndex);
+        targetRegionCenter.y = track.getWaypointCenterY(laneSelection, targetWaypointIndex);
+
+        PointF[] lp = lastPassedRegionCorners, tp = targetRegionCorners;
+        if (waypointLine == null) {
+            waypointLine = new Line.Builder(myCar.getPosition(), targetRegionCenter)
+                    .color(0.0f, 1.0f, 1.0f, 1.0f).visible(true).build();
+            lastPassedWaypointLineL = new Line.Builder(lp[0], lp[2])
+                    .color(0.0f, 1.0f, 1.0f, 1.0f).visible(true).build();
+            lastPassedWaypointLineR = new Line.Builder(lp[1], lp[3])
+                    .color(0.0f, 1.0f, 1.0f, 1.0f).visible(true).build();
+            lastPassedWaypointLineT = new Line.Builder(lp[0], lp[1])
+                    .color(0.0f, 1.0f, 1.0f, 1.0f).visible(true).build();
+            lastPassedWaypointLineB = new Line.Builder(lp[2], lp[3])
+                    .color(0.0f, 1.0f, 1.0f, 1.0f).visible(true).build();
+            targetWaypointLineL = new Line.Builder(tp[0], tp[2])
+                    .color(1.0f, 1.0f, 0.0f, 1.0f).visible(true).build();
+            targetWaypointLineR = new Line.Builder(tp[1], tp[3])
+                    .color(1.0f, 1.0f, 0.0f, 1.0f).visible(true).build();
+            targetWaypointLineT = new Line.Builder(tp[0], tp[1])
+                    .color(1.0f, 1.0f, 0.0f, 1.0f).visible(true).build();
+            targetWaypointLineB = new Line.Builder(tp[2], tp[3])
+                    .color(1.0f, 1.0f, 0.0f, 1.0f).visible(true).build();
+        } else {
+            waypointLine.setPoints(myCar.getPosition(), targetRegionCenter);
+        }
+        //waypointLine.commit();
+        lastPassedWaypointLineL.commit();
+        lastPassedWaypointLineR.commit();
+        lastPassedWaypointLineT.commit();
+        lastPassedWaypointLineB.commit();
+        targetWaypointLineL.commit();
+        targetWaypointLineR.commit();
+        targetWaypointLineT.commit();
+        targetWaypointLineB.commit();
+    }
+
     /**
      *
      * @param tickCount
@@ -1168,7 +1268,7 @@ public class Driver implements Comparable<Driver> {
      *
      * @return
      */
-    private Track.LaneSelection getPathSelection() {
+    Track.LaneSelection getPathSelection() {
         return laneSelection;
     }
 
@@ -1214,34 +1314,40 @@ public class Driver implements Comparable<Driver> {
 
     /**
      *
-     * @param effect
+     * @param builder
+     * @return effect instance, valid until it expires
      */
-    void addEffect(Effect effect) {
-        effects.add(effect);
+    Effect addEffect(Effect.Builder builder) {
+        return effects.add(builder);
     }
 
     /**
-     *
-     * @return
+     * Recurring modifiers which are set again every tick, like rank. Each slot is kept by
+     * driver and overwritten in place instead of adding a new effect of one tick duration.
      */
-    private void applyEffects() {
-        float modifierCarGeneral = 1.0f;
-        float modifierDriverGeneral = 1.0f;
-
-        for(Iterator<Effect> it = effects.iterator(); it.hasNext() ; ) {
-            Effect effect = it.next();
+    enum ModifierSlot {
+        RANK
+    }
 
-            modifierCarGeneral *= effect.getModifierCarGeneral();
-            modifierDriverGeneral *= effect.getModifierDriverGeneral();
+    /**
+     * Modifiers of slot stay until they are set again
+     * @param slot
+     * @param modifierCarGeneral
+     * @param modifierDriverGeneral
+     */
+    void setSlotModifier(ModifierSlot slot, float modifierCarGeneral,
+                         float modifierDriverGeneral) {
+        effects.setSlotModifier(slot.ordinal(), modifierCarGeneral, modifierDriverGeneral);
+    }
 
-            effect.tick();
-            if (effect.isExpired()) {
-                it.remove();
-            }
-        }
+    /**
+     * Expire effects and pass combined modifiers to driver and car
+     */
+    void applyEffects() {
+        effects.update();
 
-        setModifierDriverGeneral(modifierDriverGeneral);
-        myCar.setModifierGeneral(modifierCarGeneral);
+        setModifierDriverGeneral(effects.getModifierDriverGeneral());
+        myCar.setModifiers(effects.getModifiers());
     }
 
     /**
@@ -1264,18 +1370,24 @@ public class Driver implements Comparable<Driver> {
      *
      * @return
      */
-    public ArrayList<Effect> getEffects() {
+    EffectStack getEffects() {
         return effects;
     }
 
+    private static final int MODIFIER_SLOT_COUNT = ModifierSlot.values().length;
+
     private final int STARTING_WAYPOINT_INDEX = 10;
-    private final int MIN_WAYPOINT_SEARCH_PERIOD = 1;
-    private final int DEFENSIVE_DRIVING_RELEASE_TICKCOUNT = 10;
-    private final float EMERGENCY_ESCAPING_STATE_VELOCITY_LIMIT = 2.0f;
-    private final float OVERTAKING_ENTER_POSSIBILITY = 0.03f;
-    private final float AGGRESSIVE_ENTER_POSSIBILITY = 0.05f;
-    private final int OVERTAKING_PENALTY_ON_BRAKING = 10;
-    private final int LANE_CHANGING_GUARD_TIME = 6;
+    private final int RANKING_SEARCH_BEHIND = 4;
+    private final int RANKING_SEARCH_AHEAD = 16;
+
+    // Tuning constants, see DriverTuning
+    private final int MIN_WAYPOINT_SEARCH_PERIOD;
+    private final int DEFENSIVE_DRIVING_RELEASE_TICKCOUNT;
+    private final float EMERGENCY_ESCAPING_STATE_VELOCITY_LIMIT;
+    private final float OVERTAKING_ENTER_POSSIBILITY;
+    private final float AGGRESSIVE_ENTER_POSSIBILITY;
+    private final int OVERTAKING_PENALTY_ON_BRAKING;
+    private final int LANE_CHANGING_GUARD_TIME;
 
     private String name;
     private Car myCar;
@@ -1283,7 +1395,10 @@ public class Driver implements Comparable<Driver> {
     private RectF targetRegion;
 
     private ArrayList<Car> cars;
-    private ArrayList<CollidableObject> obstacles;
+    private WorldSnapshot snapshot;
+    private ObstacleGrid obstacleGrid;
+    private int[] neighborObstacles;
+    private Random random;
 
     // waypoints
     private int lastWaypointPassedIndex;
@@ -1293,6 +1408,7 @@ public class Driver implements Comparable<Driver> {
 
     // state-machine
     private State state;
+    private State drivenState;
     private int stayingTimeLeftOnState;
     private int stayingTimeOnState;
     private int laneChangingGuardTimeLeft = 0;
@@ -1300,8 +1416,9 @@ public class Driver implements Comparable<Driver> {
     // state
     private int lap;
     private int rank;
+    private double rankingProgress;
     private boolean finishLineCheckerDone;
-    private ArrayList<Effect> effects;
+    private EffectStack effects;
     private float modifierDriverGeneral;
 
     // debugging
@@ -1311,4 +1428,10 @@ public class Driver implements Comparable<Driver> {
             lastPassedWaypointLineB;
     private Line targetWaypointLineL, targetWaypointLineR, targetWaypointLineT,
             targetWaypointLineB;
+    private final RectF debugRegion = new RectF();
+    private final PointF[] lastPassedRegionCorners = {
+            new PointF(), new PointF(), new PointF(), new PointF() };
+    private final PointF[] targetRegionCorners = {
+            new PointF(), new PointF(), new PointF(), new PointF() };
+    private final PointF targetRegionCenter = new PointF();
 }
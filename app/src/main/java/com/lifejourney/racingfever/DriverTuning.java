@@ -0,0 +1,99 @@
+package com.lifejourney.racingfever;
+
+import java.util.Locale;
+
+/**
+ * Constants of driver behavior. Drivers built without tuning use DEFAULT, others are mainly
+ * for sweeping the constants with RaceBatchRunner.
+ */
+class DriverTuning {
+
+    static final DriverTuning DEFAULT = new Builder().build();
+
+    static class Builder {
+        int minWaypointSearchPeriod = 1;
+        int defensiveDrivingReleaseTickCount = 10;
+        float emergencyEscapingStateVelocityLimit = 2.0f;
+        float overtakingEnterPossibility = 0.03f;
+        float aggressiveEnterPossibility = 0.05f;
+        int overtakingPenaltyOnBraking = 10;
+        int laneChangingGuardTime = 6;
+
+        Builder() {
+        }
+        Builder(DriverTuning tuning) {
+            minWaypointSearchPeriod = tuning.minWaypointSearchPeriod;
+            defensiveDrivingReleaseTickCount = tuning.defensiveDrivingReleaseTickCount;
+            emergencyEscapingStateVelocityLimit = tuning.emergencyEscapingStateVelocityLimit;
+            overtakingEnterPossibility = tuning.overtakingEnterPossibility;
+            aggressiveEnterPossibility = tuning.aggressiveEnterPossibility;
+            overtakingPenaltyOnBraking = tuning.overtakingPenaltyOnBraking;
+            laneChangingGuardTime = tuning.laneChangingGuardTime;
+        }
+        Builder minWaypointSearchPeriod(int minWaypointSearchPeriod) {
+            this.minWaypointSearchPeriod = minWaypointSearchPeriod;
+            return this;
+        }
+        Builder defensiveDrivingReleaseTickCount(int defensiveDrivingReleaseTickCount) {
+            this.defensiveDrivingReleaseTickCount = defensiveDrivingReleaseTickCount;
+            return this;
+        }
+        Builder emergencyEscapingStateVelocityLimit(float emergencyEscapingStateVelocityLimit) {
+            this.emergencyEscapingStateVelocityLimit = emergencyEscapingStateVelocityLimit;
+            return this;
+        }
+        Builder overtakingEnterPossibility(float overtakingEnterPossibility) {
+            this.overtakingEnterPossibility = overtakingEnterPossibility;
+            return this;
+        }
+        Builder aggressiveEnterPossibility(float aggressiveEnterPossibility) {
+            this.aggressiveEnterPossibility = aggressiveEnterPossibility;
+            return this;
+        }
+        Builder overtakingPenaltyOnBraking(int overtakingPenaltyOnBraking) {
+            this.overtakingPenaltyOnBraking = overtakingPenaltyOnBraking;
+            return this;
+        }
+        Builder laneChangingGuardTime(int laneChangingGuardTime) {
+            this.laneChangingGuardTime = laneChangingGuardTime;
+            return this;
+        }
+        DriverTuning build() {
+            return new DriverTuning(this);
+        }
+    }
+
+    private DriverTuning(Builder builder) {
+        minWaypointSearchPeriod = builder.minWaypointSearchPeriod;
+        defensiveDrivingReleaseTickCount = builder.defensiveDrivingReleaseTickCount;
+        emergencyEscapingStateVelocityLimit = builder.emergencyEscapingStateVelocityLimit;
+        overtakingEnterPossibility = builder.overtakingEnterPossibility;
+        aggressiveEnterPossibility = builder.aggressiveEnterPossibility;
+        overtakingPenaltyOnBraking = builder.overtakingPenaltyOnBraking;
+        laneChangingGuardTime = builder.laneChangingGuardTime;
+    }
+
+    /**
+     *
+     * @return
+     */
+    @Override
+    public String toString() {
+        return String.format(Locale.US,
+                "minWaypointSearchPeriod=%d defensiveDrivingReleaseTickCount=%d " +
+                "emergencyEscapingStateVelocityLimit=%.3f overtakingEnterPossibility=%.3f " +
+                "aggressiveEnterPossibility=%.3f overtakingPenaltyOnBraking=%d " +
+                "laneChangingGuardTime=%d",
+                minWaypointSearchPeriod, defensiveDrivingReleaseTickCount,
+                emergencyEscapingStateVelocityLimit, overtakingEnterPossibility,
+                aggressiveEnterPossibility, overtakingPenaltyOnBraking, laneChangingGuardTime);
+    }
+
+    final int minWaypointSearchPeriod;
+    final int defensiveDrivingReleaseTickCount;
+    final float emergencyEscapingStateVelocityLimit;
+    final float overtakingEnterPossibility;
+    final float aggressiveEnterPossibility;
+    final int overtakingPenaltyOnBraking;
+    final int laneChangingGuardTime;
+}
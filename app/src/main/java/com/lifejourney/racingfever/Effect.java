@@ -2,21 +2,46 @@ package com.lifejourney.racingfever;
 
 import com.lifejourney.engine2d.Sprite;
 
+import java.util.Arrays;
+
+/**
+ * Effect instances are owned and recycled by EffectStack, so one shouldn't be kept after
+ * it expires.
+ */
 public class Effect {
 
+    /**
+     * Car properties which effects can modify. Modifiers are multiplied to the property.
+     */
+    enum Channel {
+        SPEED,
+        POWER,
+        AGILITY,
+        BRAKING
+    }
+
+    static final int CHANNEL_COUNT = Channel.values().length;
+
     static class Builder {
         String name;
         int duration;
 
-        float modifierCarGeneral = 1.0f;
+        float[] modifiers = newModifiers();
         float modifierDriverGeneral = 1.0f;
         Sprite effectSprite;
 
         Builder(String name, int duration) {
+            this.name = name;
             this.duration = duration;
         }
+        Builder modifier(Channel channel, float modifier) {
+            this.modifiers[channel.ordinal()] = modifier;
+            return this;
+        }
         Builder modifierCarGeneral(float modifierCarGeneral) {
-            this.modifierCarGeneral = modifierCarGeneral;
+            this.modifiers[Channel.SPEED.ordinal()] = modifierCarGeneral;
+            this.modifiers[Channel.POWER.ordinal()] = modifierCarGeneral;
+            this.modifiers[Channel.AGILITY.ordinal()] = modifierCarGeneral;
             return this;
         }
         Builder modifierDriverGeneral(float modifierDriverGeneral) {
@@ -27,40 +52,60 @@ public class Effect {
             this.effectSprite = effectSprite;
             return this;
         }
-        Effect build() {
-            return new Effect(this);
-        }
     }
 
-    private Effect(Builder builder) {
+    /**
+     *
+     * @return modifiers of all channels set to 1
+     */
+    static float[] newModifiers() {
+        float[] modifiers = new float[CHANNEL_COUNT];
+        Arrays.fill(modifiers, 1.0f);
+        return modifiers;
+    }
+
+    Effect() {
+        modifiers = newModifiers();
+    }
+
+    /**
+     * Initialize recycled effect
+     * @param builder
+     * @param expireTick
+     */
+    void set(Builder builder, long expireTick) {
         name = builder.name;
         duration = builder.duration;
-        modifierCarGeneral = builder.modifierCarGeneral;
+        System.arraycopy(builder.modifiers, 0, modifiers, 0, CHANNEL_COUNT);
         modifierDriverGeneral = builder.modifierDriverGeneral;
         effectSprite = builder.effectSprite;
+        this.expireTick = expireTick;
     }
 
     /**
-     *
+     * Drop references before it goes back to pool
      */
-    void tick() {
-        duration--;
+    void clear() {
+        name = null;
+        effectSprite = null;
     }
 
     /**
      *
+     * @param channel
      * @return
      */
-    boolean isExpired() {
-        return duration <= 0;
+    public float getModifier(Channel channel) {
+        return modifiers[channel.ordinal()];
     }
 
     /**
      *
+     * @param channel ordinal of channel
      * @return
      */
-    public float getModifierCarGeneral() {
-        return modifierCarGeneral;
+    float getModifier(int channel) {
+        return modifiers[channel];
     }
 
     /**
@@ -79,6 +124,14 @@ public class Effect {
         return duration;
     }
 
+    /**
+     *
+     * @return tick of EffectStack when it's removed
+     */
+    long getExpireTick() {
+        return expireTick;
+    }
+
     /**
      *
      */
@@ -96,9 +149,27 @@ public class Effect {
         return name;
     }
 
+    /**
+     *
+     * @param leaf index of leaf in product trees of EffectStack
+     */
+    void setLeaf(int leaf) {
+        this.leaf = leaf;
+    }
+
+    /**
+     *
+     * @return
+     */
+    int getLeaf() {
+        return leaf;
+    }
+
     private String name;
     private int duration;
-    private float modifierCarGeneral;
+    private long expireTick;
+    private float[] modifiers;
     private float modifierDriverGeneral;
     private Sprite effectSprite;
+    private int leaf;
 }
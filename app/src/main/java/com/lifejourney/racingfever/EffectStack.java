@@ -0,0 +1,279 @@
+package com.lifejourney.racingfever;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+
+/**
+ * Active effects of a driver and their combined modifiers.
+ *
+ * Effects are kept in a binary min-heap ordered by expire tick, so update() only looks at the
+ * ones which expire. Each active effect also owns a leaf of a product tree per channel, whose
+ * root is the product of modifiers of all active effects. Adding or expiring an effect updates
+ * only the path from its leaf, so it costs O(log n) regardless of how many effects are active,
+ * and products are always multiplied exactly instead of dividing expired modifiers out.
+ * Expired effects go back to the pool and are reused by add().
+ *
+ * Slots hold recurring modifiers like rank which are overwritten in place every tick.
+ */
+class EffectStack {
+
+    /**
+     *
+     * @param slotCount
+     */
+    EffectStack(int slotCount) {
+        heap = new Effect[16];
+        pool = new ArrayList<>();
+        freeLeaves = new int[16];
+        leafCapacity = 16;
+        products = new float[AGGREGATE_COUNT][leafCapacity * 2];
+        for (float[] aggregate : products) {
+            Arrays.fill(aggregate, 1.0f);
+        }
+        modifiers = Effect.newModifiers();
+        slotModifiersCarGeneral = new float[slotCount];
+        slotModifiersDriverGeneral = new float[slotCount];
+        Arrays.fill(slotModifiersCarGeneral, 1.0f);
+        Arrays.fill(slotModifiersDriverGeneral, 1.0f);
+        modifierDriverGeneral = 1.0f;
+    }
+
+    /**
+     * Add effect which lasts for its duration from the next update
+     * @param builder
+     * @return effect instance, valid until it expires
+     */
+    Effect add(Effect.Builder builder) {
+        Effect effect = pool.isEmpty() ? new Effect() : pool.remove(pool.size() - 1);
+        effect.set(builder, currentTick + builder.duration);
+
+        if (size == heap.length) {
+            heap = Arrays.copyOf(heap, size * 2);
+        }
+        heap[size] = effect;
+        siftUp(size++);
+
+        int leaf;
+        if (freeLeafCount > 0) {
+            leaf = freeLeaves[--freeLeafCount];
+        }
+        else {
+            if (leafCount == leafCapacity) {
+                growProducts();
+            }
+            leaf = leafCount++;
+        }
+        effect.setLeaf(leaf);
+        setLeafProducts(leaf, effect);
+
+        dirty = true;
+        return effect;
+    }
+
+    /**
+     * Slot modifier stays until it's set again. It affects speed, power and agility channels.
+     * @param slot
+     * @param modifierCarGeneral
+     * @param modifierDriverGeneral
+     */
+    void setSlotModifier(int slot, float modifierCarGeneral, float modifierDriverGeneral) {
+        if (slotModifiersCarGeneral[slot] != modifierCarGeneral ||
+                slotModifiersDriverGeneral[slot] != modifierDriverGeneral) {
+            slotModifiersCarGeneral[slot] = modifierCarGeneral;
+            slotModifiersDriverGeneral[slot] = modifierDriverGeneral;
+            dirty = true;
+        }
+    }
+
+    /**
+     * Remove effects expired before this tick, combine modifiers if needed, then advance a
+     * tick
+     */
+    void update() {
+        while (size > 0 && heap[0].getExpireTick() <= currentTick) {
+            Effect expired = heap[0];
+            heap[0] = heap[--size];
+            heap[size] = null;
+            if (size > 0) {
+                siftDown(0);
+            }
+
+            int leaf = expired.getLeaf();
+            setLeafProducts(leaf, null);
+            if (freeLeafCount == freeLeaves.length) {
+                freeLeaves = Arrays.copyOf(freeLeaves, freeLeafCount * 2);
+            }
+            freeLeaves[freeLeafCount++] = leaf;
+
+            expired.clear();
+            pool.add(expired);
+            dirty = true;
+        }
+
+        if (dirty) {
+            combine();
+            dirty = false;
+        }
+
+        currentTick++;
+    }
+
+    /**
+     * Combine products of slots and roots of product trees. It doesn't depend on the number
+     * of active effects.
+     */
+    private void combine() {
+        float modifierCarGeneral = 1.0f;
+        float modifierDriverGeneral = 1.0f;
+        for (int slot = 0; slot < slotModifiersCarGeneral.length; ++slot) {
+            modifierCarGeneral *= slotModifiersCarGeneral[slot];
+            modifierDriverGeneral *= slotModifiersDriverGeneral[slot];
+        }
+
+        for (int channel = 0; channel < Effect.CHANNEL_COUNT; ++channel) {
+            modifiers[channel] = products[channel][1];
+        }
+        modifiers[Effect.Channel.SPEED.ordinal()] *= modifierCarGeneral;
+        modifiers[Effect.Channel.POWER.ordinal()] *= modifierCarGeneral;
+        modifiers[Effect.Channel.AGILITY.ordinal()] *= modifierCarGeneral;
+
+        this.modifierDriverGeneral = modifierDriverGeneral * products[DRIVER_GENERAL][1];
+    }
+
+    /**
+     * Set modifiers of effect to the leaf and update products on the path to root
+     * @param leaf
+     * @param effect null to reset the leaf
+     */
+    private void setLeafProducts(int leaf, Effect effect) {
+        int node = leafCapacity + leaf;
+        for (int channel = 0; channel < Effect.CHANNEL_COUNT; ++channel) {
+            products[channel][node] = (effect != null)? effect.getModifier(channel) : 1.0f;
+        }
+        products[DRIVER_GENERAL][node] =
+                (effect != null)? effect.getModifierDriverGeneral() : 1.0f;
+
+        for (node /= 2; node >= 1; node /= 2) {
+            for (float[] aggregate : products) {
+                aggregate[node] = aggregate[node * 2] * aggregate[node * 2 + 1];
+            }
+        }
+    }
+
+    /**
+     * Double the leaves of product trees and rebuild inner nodes
+     */
+    private void growProducts() {
+        int capacity = leafCapacity * 2;
+        for (int i = 0; i < AGGREGATE_COUNT; ++i) {
+            float[] aggregate = new float[capacity * 2];
+            Arrays.fill(aggregate, 1.0f);
+            System.arraycopy(products[i], leafCapacity, aggregate, capacity, leafCapacity);
+            for (int node = capacity - 1; node >= 1; --node) {
+                aggregate[node] = aggregate[node * 2] * aggregate[node * 2 + 1];
+            }
+            products[i] = aggregate;
+        }
+        leafCapacity = capacity;
+    }
+
+    /**
+     *
+     * @param index
+     */
+    private void siftUp(int index) {
+        Effect effect = heap[index];
+        while (index > 0) {
+            int parent = (index - 1) / 2;
+            if (heap[parent].getExpireTick() <= effect.getExpireTick()) {
+                break;
+            }
+            heap[index] = heap[parent];
+            index = parent;
+        }
+        heap[index] = effect;
+    }
+
+    /**
+     *
+     * @param index
+     */
+    private void siftDown(int index) {
+        Effect effect = heap[index];
+        int half = size / 2;
+        while (index < half) {
+            int child = index * 2 + 1;
+            if (child + 1 < size &&
+                    heap[child + 1].getExpireTick() < heap[child].getExpireTick()) {
+                child++;
+            }
+            if (effect.getExpireTick() <= heap[child].getExpireTick()) {
+                break;
+            }
+            heap[index] = heap[child];
+            index = child;
+        }
+        heap[index] = effect;
+    }
+
+    /**
+     * Combined modifiers of all channels, indexed by ordinal of Effect.Channel
+     * @return
+     */
+    float[] getModifiers() {
+        return modifiers;
+    }
+
+    /**
+     *
+     * @param channel
+     * @return
+     */
+    float getModifier(Effect.Channel channel) {
+        return modifiers[channel.ordinal()];
+    }
+
+    /**
+     *
+     * @return
+     */
+    float getModifierDriverGeneral() {
+        return modifierDriverGeneral;
+    }
+
+    /**
+     *
+     * @return number of active effects
+     */
+    int size() {
+        return size;
+    }
+
+    /**
+     * Active effects are not in any particular order
+     * @param index
+     * @return
+     */
+    Effect get(int index) {
+        return heap[index];
+    }
+
+    // Products of effect channels, and the driver general one after them
+    private final int DRIVER_GENERAL = Effect.CHANNEL_COUNT;
+    private final int AGGREGATE_COUNT = Effect.CHANNEL_COUNT + 1;
+
+    private Effect[] heap;
+    private int size;
+    private ArrayList<Effect> pool;
+    private long currentTick;
+    private boolean dirty;
+    private float[][] products;
+    private int leafCapacity;
+    private int leafCount;
+    private int[] freeLeaves;
+    private int freeLeafCount;
+    private float[] modifiers;
+    private float modifierDriverGeneral;
+    private float[] slotModifiersCarGeneral;
+    private float[] slotModifiersDriverGeneral;
+}
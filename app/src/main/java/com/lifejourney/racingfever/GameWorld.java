@@ -15,54 +15,115 @@ import com.lifejourney.engine2d.Vector2D;
 import com.lifejourney.engine2d.World;
 
 import java.util.ArrayList;
-import java.util.Collections;
-import java.util.Comparator;
+import java.util.Arrays;
 import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
 
 public class GameWorld extends World{
 
     static final String LOG_TAG = "GameWorld";
 
+    // Shared by all worlds for updating drivers
+    private static final ForkJoinPool DRIVER_POOL = new ForkJoinPool();
+
     GameWorld() {
+        this(new TrackData("maps/track3.png"), 0, System.nanoTime(), false);
+    }
+
+    /**
+     * In headless mode, nothing is registered to Engine2D. There's no view, no sprite and
+     * no collision pool, so the world can be ticked by step() without any surface.
+     * @param trackData
+     * @param numberOfCars number of cars, 0 means the number of starting points on track
+     * @param seed
+     * @param headless
+     */
+    GameWorld(TrackData trackData, int numberOfCars, long seed, boolean headless) {
+        this(new Track(trackData, 2.0f, headless), numberOfCars, seed, headless,
+                DriverTuning.DEFAULT, true);
+    }
+
+    /**
+     * Headless world on a track model which may be shared by other worlds. Drivers are
+     * updated on the calling thread, so that worlds can run one per thread without competing
+     * for the shared driver pool.
+     * @param trackModel
+     * @param numberOfCars number of cars, 0 means the number of starting points on track
+     * @param seed
+     * @param tuning
+     */
+    GameWorld(TrackModel trackModel, int numberOfCars, long seed, DriverTuning tuning) {
+        this(new Track(trackModel, true), numberOfCars, seed, true, tuning, false);
+    }
+
+    /**
+     *
+     * @param track
+     * @param numberOfCars
+     * @param seed
+     * @param headless
+     * @param tuning
+     * @param parallelDrivers update drivers on DRIVER_POOL if there are many
+     */
+    private GameWorld(Track track, int numberOfCars, long seed, boolean headless,
+                      DriverTuning tuning, boolean parallelDrivers) {
         setDesiredFPS(20.0f);
 
-        random = new Random();
+        this.headless = headless;
+        this.parallelDrivers = parallelDrivers;
+        this.track = track;
+        random = new Random(seed);
 
-        Track track = new Track("maps/track3.png", 2.0f);
-        track.show();
+        MinimapView minimapView = null;
+        if (!headless) {
+            track.show();
 
-        initCollisionPool(track.getView().getSize());
-        addMainView(track.getView());
+            initCollisionPool(track.getView().getSize());
+            addMainView(track.getView());
 
-        // Add minimap
-        MinimapView minimapView = new MinimapView(track);
-        minimapView.show();
-        addSubView(minimapView);
+            // Add minimap
+            minimapView = new MinimapView(track);
+            minimapView.show();
+            addSubView(minimapView);
+        }
 
         cars = new ArrayList<>();
         drivers = new ArrayList<>();
         obstacles = new ArrayList<>();
-        int numberOfCars = track.getData().getStartPointCount();
+        snapshots = new ArrayList<>();
+        for (int i = 0; i < SNAPSHOT_BUFFER_COUNT; ++i) {
+            snapshots.add(new WorldSnapshot());
+        }
+        obstacleGrid = new ObstacleGrid(OBSTACLE_GRID_CELL_SIZE);
+        if (numberOfCars <= 0) {
+            numberOfCars = track.getData().getStartPointCount();
+        }
         for (int i = 0; i < numberOfCars; ++i) {
-            Point startDataPosition = track.getData().getStartPoint(i);
             Car.Type type = Car.Type.values()[random.nextInt(Car.Type.values().length)];
-            Car car = new Car.Builder("Chaeseong"+i,
-                    track.getView().getScreenRegionfromTrackCoord(startDataPosition).center(),
-                    type, i).scale(3.0f).headDirection(270.0f).build();
+            Car car = new Car.Builder("Chaeseong"+i, getStartingPosition(i), type, i)
+                    .scale(3.0f).headDirection(270.0f).headless(headless).build();
             cars.add(car);
             obstacles.add(car);
 
             Driver driver = new Driver.Builder("Chaeseong"+i)
-                    .obstacles(obstacles).cars(cars).build();
+                    .obstacleGrid(obstacleGrid).cars(cars)
+                    .random(new Random(random.nextLong())).tuning(tuning).build();
             driver.ride(car);
             driver.learn(track);
             driver.start();
             drivers.add(driver);
 
-            addObject(car);
+            if (!headless) {
+                addObject(car);
+            }
         }
 
-        minimapView.setCars(cars);
+        publishSnapshot();
+
+        if (minimapView != null) {
+            minimapView.setWorld(this);
+        }
 
 /*
         Size objSize = new Size(32, 32).multiply(1.5f);
@@ -125,6 +186,41 @@ public class GameWorld extends World{
         return true;
     }
 
+    /**
+     *
+     * @param index
+     * @return
+     */
+    private PointF getStartingPosition(int index) {
+        TrackData data = track.getData();
+        int startPointCount = data.getStartPointCount();
+        if (index < startPointCount) {
+            return track.getView().getScreenRegionfromTrackCoord(data.getStartPoint(index))
+                    .center();
+        }
+
+        // Line up remaining cars behind the starting grid, one car per lane in each row
+        int laneCount = Track.LaneSelection.values().length - 1;
+        int extraIndex = index - startPointCount;
+        int row = extraIndex / laneCount + 1;
+        Track.LaneSelection lane = Track.LaneSelection.values()[1 + extraIndex % laneCount];
+        int waypointCount = track.getPackedLane(lane).size();
+        int waypointIndex = ((waypointCount - row) % waypointCount + waypointCount) % waypointCount;
+        return track.getWaypointRegion(lane, waypointIndex).center();
+    }
+
+    /**
+     * Advance world by one tick without rendering. It's used in headless mode instead of
+     * update() because it doesn't depend on wall clock.
+     */
+    void step() {
+        preupdate();
+        for (Car car: cars) {
+            car.update();
+        }
+        postupdate();
+    }
+
     /**
      *
      */
@@ -138,20 +234,128 @@ public class GameWorld extends World{
      */
     @Override
     public void postupdate() {
+        tickCount++;
+        publishSnapshot();
         updateViewport();
     }
 
+    /**
+     * Capture states of cars into a snapshot which is neither published nor pinned by
+     * readers and publish it. With three buffers there's always one free unless readers on
+     * other threads pin older ones for more than a tick, and a new one is added then.
+     */
+    private void publishSnapshot() {
+        WorldSnapshot snapshot = null;
+        for (int i = 0; i < snapshots.size(); ++i) {
+            WorldSnapshot candidate = snapshots.get(i);
+            if (candidate != publishedSnapshot && candidate.tryBeginCapture()) {
+                snapshot = candidate;
+                break;
+            }
+        }
+        if (snapshot == null) {
+            snapshot = new WorldSnapshot();
+            snapshot.tryBeginCapture();
+            snapshots.add(snapshot);
+        }
+
+        snapshot.capture(cars, tickCount);
+        snapshot.endCapture();
+        publishedSnapshot = snapshot;
+
+        // Index cars once per tick for neighbor queries of drivers
+        obstacleGrid.rebuild(snapshot);
+
+        if (headless) {
+            countContacts(snapshot);
+        }
+    }
+
+    /**
+     * Count collisions of cars in headless mode where engine doesn't detect them. A
+     * collision is counted when a car starts to overlap with another car.
+     * @param snapshot
+     */
+    private void countContacts(WorldSnapshot snapshot) {
+        int count = snapshot.size();
+        if (contacts == null || contacts.length < count) {
+            contacts = (contacts == null) ? new boolean[count] : Arrays.copyOf(contacts, count);
+            contactCandidates = new int[count];
+        }
+
+        float maxRadius = 0.0f;
+        for (int i = 0; i < count; ++i) {
+            maxRadius = Math.max(maxRadius, snapshot.getRadius(i));
+        }
+
+        for (int i = 0; i < count; ++i) {
+            float x = snapshot.getX(i), y = snapshot.getY(i), radius = snapshot.getRadius(i);
+            int candidateCount = obstacleGrid.query(x, y, radius + maxRadius, contactCandidates);
+
+            boolean inContact = false;
+            for (int c = 0; c < candidateCount && !inContact; ++c) {
+                int other = contactCandidates[c];
+                if (other == i) {
+                    continue;
+                }
+
+                float dx = snapshot.getX(other) - x, dy = snapshot.getY(other) - y;
+                float totalRadius = radius + snapshot.getRadius(other);
+                inContact = (dx * dx + dy * dy < totalRadius * totalRadius);
+            }
+
+            if (inContact && !contacts[i]) {
+                snapshot.getCar(i).countCollision();
+            }
+            contacts[i] = inContact;
+        }
+    }
+
+    /**
+     * Latest states of cars published at the end of tick. It's only for world thread, other
+     * threads should use acquireSnapshot().
+     * @return
+     */
+    WorldSnapshot getSnapshot() {
+        return publishedSnapshot;
+    }
+
+    /**
+     * Latest published snapshot pinned for reading on other thread than world. It's not
+     * captured into until it's released, so the reader never sees a mix of ticks.
+     * @return snapshot which should be passed to releaseSnapshot() after reading
+     */
+    WorldSnapshot acquireSnapshot() {
+        while (true) {
+            // Pinning fails only if world started capturing into it after publishing a newer one
+            WorldSnapshot snapshot = publishedSnapshot;
+            if (snapshot.tryPin()) {
+                return snapshot;
+            }
+        }
+    }
+
     /**
      *
+     * @param snapshot snapshot from acquireSnapshot()
+     */
+    void releaseSnapshot(WorldSnapshot snapshot) {
+        snapshot.unpin();
+    }
+
+    /**
+     * Drivers are updated in two phases. First, every driver makes decision in parallel
+     * reading other cars only from snapshot published at the end of last tick. Then results
+     * touching engine objects are committed in ranking order on this thread. As a driver
+     * doesn't see what other drivers decided in the same tick and has its own random
+     * generator, the result doesn't depend on thread scheduling.
      */
     private void updateDrivers() {
+        // Obstacle grid is already built from this snapshot when it's published
+        WorldSnapshot snapshot = publishedSnapshot;
+
         // Sort drivers by rank
-        Collections.sort(drivers, new Comparator<Driver>() {
-            @Override
-            public int compare(Driver s1, Driver s2) {
-                return s1.compareRanking(s2);
-            }
-        });
+        sortDriversByRank();
 
         // Set rank and rank effect to driver
         int rank = 0;
@@ -163,34 +367,151 @@ public class GameWorld extends World{
                     driver.getLastWaypointPassedIndex());
              */
             float modifier = 1.0f + rank*(0.1f/8);
-            driver.addEffect(new Effect.Builder("rank", 1)
-                    .modifierCarGeneral(modifier).build());
+            driver.setSlotModifier(Driver.ModifierSlot.RANK, modifier, 1.0f);
             rank++;
         }
 
         // Update driver state
+        if (parallelDrivers && drivers.size() > DriverUpdateTask.THRESHOLD) {
+            DRIVER_POOL.invoke(new DriverUpdateTask(snapshot, 0, drivers.size()));
+        }
+        else {
+            for (Driver driver : drivers) {
+                driver.update(snapshot);
+            }
+        }
+
+        // Commit results
+        for (Driver driver : drivers) {
+            driver.commit();
+        }
+    }
+
+    /**
+     * Sort drivers in descending order of ranking progress. Drivers stay sorted from last
+     * tick and only a few of them overtake each other in a tick, so insertion sort runs in
+     * nearly linear time. It's stable, so tied drivers keep their order.
+     */
+    private void sortDriversByRank() {
         for (Driver driver : drivers) {
-            driver.update();
+            driver.updateRankingProgress();
+        }
+
+        for (int i = 1; i < drivers.size(); ++i) {
+            Driver driver = drivers.get(i);
+            double progress = driver.getRankingProgress();
+            int j = i - 1;
+            while (j >= 0 && drivers.get(j).getRankingProgress() < progress) {
+                drivers.set(j + 1, drivers.get(j));
+                j--;
+            }
+            drivers.set(j + 1, driver);
         }
     }
 
+    /**
+     * Update drivers in [from, to)
+     */
+    private class DriverUpdateTask extends RecursiveAction {
+
+        private static final int THRESHOLD = 8;
+
+        DriverUpdateTask(WorldSnapshot snapshot, int from, int to) {
+            this.snapshot = snapshot;
+            this.from = from;
+            this.to = to;
+        }
+
+        @Override
+        protected void compute() {
+            if (to - from > THRESHOLD) {
+                int mid = (from + to) >>> 1;
+                invokeAll(new DriverUpdateTask(snapshot, from, mid),
+                        new DriverUpdateTask(snapshot, mid, to));
+                return;
+            }
+
+            for (int i = from; i < to; ++i) {
+                drivers.get(i).update(snapshot);
+            }
+        }
+
+        private WorldSnapshot snapshot;
+        private int from, to;
+    }
+
     /**
      *
      */
     private void updateViewport() {
         // Set ego vehicle in center
-        if (cars.size() > 0) {
+        WorldSnapshot snapshot = publishedSnapshot;
+        if (!headless && snapshot.size() > 0) {
             Rect viewport = Engine2D.GetInstance().getViewport();
-            Point egoCarPosition = new Point(cars.get(cars.size()/2).getPosition());
+            int egoIndex = snapshot.size() / 2;
+            Point egoCarPosition =
+                    new Point(new PointF(snapshot.getX(egoIndex), snapshot.getY(egoIndex)));
             viewport.offsetTo(egoCarPosition.subtract(viewport.width / 2, viewport.height / 2));
             Engine2D.GetInstance().setViewport(viewport);
         }
     }
 
+    /**
+     *
+     * @return
+     */
+    Track getTrack() {
+        return track;
+    }
+
+    /**
+     *
+     * @return
+     */
+    ArrayList<Driver> getDrivers() {
+        return drivers;
+    }
+
+    /**
+     *
+     * @return
+     */
+    ArrayList<Car> getCars() {
+        return cars;
+    }
+
+    /**
+     *
+     * @return
+     */
+    long getTickCount() {
+        return tickCount;
+    }
+
+    /**
+     *
+     * @return
+     */
+    boolean isHeadless() {
+        return headless;
+    }
+
+    private final float OBSTACLE_GRID_CELL_SIZE = 128.0f;
+    private final int SNAPSHOT_BUFFER_COUNT = 3;
+
+    private Track track;
     private ArrayList<Driver> drivers;
     private ArrayList<Car> cars;
     private ArrayList<CollidableObject> obstacles;
+    private ArrayList<WorldSnapshot> snapshots;
+    private volatile WorldSnapshot publishedSnapshot;
+    private ObstacleGrid obstacleGrid;
     private Random random;
+    private boolean headless;
+    private boolean parallelDrivers;
+    private long tickCount = 0;
+    private boolean[] contacts;
+    private int[] contactCandidates;
 
     // to be deleted
     private CollidableObject testObject;
@@ -0,0 +1,213 @@
+package com.lifejourney.racingfever;
+
+import android.util.Log;
+
+import com.lifejourney.engine2d.Point;
+import com.lifejourney.engine2d.Waypoint;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * On-disk cache of lanes searched for a track. A cache file is keyed by checksum of the map
+ * and the scale of track, and it's rebuilt when either of them doesn't match.
+ *
+ * File layout (big endian)
+ *   header: magic, version, map checksum, width, height, scale
+ *   for each lane selection: count, circular flag, then (x, y, valid, costToSearch) per waypoint
+ */
+class LaneCache {
+
+    private static final String LOG_TAG = "LaneCache";
+
+    private static final int MAGIC = 0x52464c43; // "RFLC"
+    private static final int VERSION = 1;
+
+    // x, y, valid, costToSearch
+    private static final int WAYPOINT_RECORD_SIZE = 4 + 4 + 1 + 4;
+
+    /**
+     * Directory where cache files are stored. Cache is disabled if it's not set.
+     * @param directory
+     */
+    static void setDirectory(File directory) {
+        LaneCache.directory = directory;
+    }
+
+    /**
+     *
+     * @param data
+     * @param scale
+     */
+    LaneCache(TrackData data, float scale) {
+        this.data = data;
+        this.scale = scale;
+        if (directory != null) {
+            String name = data.getMapAsset().replaceAll("[^A-Za-z0-9._-]", "_");
+            file = new File(directory, name + "_" + Float.floatToIntBits(scale) + ".lanes");
+        }
+    }
+
+    /**
+     * Load lanes from cache file
+     * @return lanes, null if there's no valid cache
+     */
+    Map<Track.LaneSelection, ArrayList<Waypoint>> load() {
+        if (file == null || !file.exists()) {
+            return null;
+        }
+
+        try {
+            FileInputStream stream = new FileInputStream(file);
+            try {
+                FileChannel channel = stream.getChannel();
+                MappedByteBuffer buffer =
+                        channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+                return read(buffer);
+            }
+            finally {
+                stream.close();
+            }
+        }
+        catch (IOException | RuntimeException e) {
+            // Corrupt or truncated file would fail every launch, so drop it to be rebuilt
+            Log.e(LOG_TAG, "Failed to load lane cache: " + file, e);
+            if (!file.delete()) {
+                Log.e(LOG_TAG, "Failed to delete lane cache: " + file);
+            }
+            return null;
+        }
+    }
+
+    /**
+     *
+     * @param buffer
+     * @return
+     * @throws IOException if the file is corrupt
+     */
+    private Map<Track.LaneSelection, ArrayList<Waypoint>> read(MappedByteBuffer buffer)
+            throws IOException {
+        if (buffer.getInt() != MAGIC || buffer.getInt() != VERSION ||
+                buffer.getLong() != data.getChecksum() ||
+                buffer.getInt() != data.getWidth() || buffer.getInt() != data.getHeight() ||
+                buffer.getInt() != Float.floatToIntBits(scale)) {
+            Log.i(LOG_TAG, "Lane cache is stale: " + file);
+            return null;
+        }
+
+        Map<Track.LaneSelection, ArrayList<Waypoint>> lanes = new HashMap<>();
+        for (Track.LaneSelection laneSelection : Track.LaneSelection.values()) {
+            int count = buffer.getInt();
+            boolean circular = (buffer.get() != 0);
+            if (count < 0 || (long) count * WAYPOINT_RECORD_SIZE > buffer.remaining()) {
+                throw new IOException("Invalid waypoint count " + count + " of " +
+                        laneSelection);
+            }
+
+            ArrayList<Waypoint> lane = new ArrayList<>(count);
+            Waypoint prevWaypoint = null;
+            for (int i = 0; i < count; ++i) {
+                Point pt = new Point(buffer.getInt(), buffer.getInt());
+                Waypoint waypoint = new Waypoint(pt, null, 0.0f);
+                waypoint.setValid(buffer.get() != 0);
+                waypoint.setCostToSearch(buffer.getInt());
+                if (circular) {
+                    waypoint.setPrev(prevWaypoint);
+                    if (prevWaypoint != null) {
+                        prevWaypoint.setNext(waypoint);
+                    }
+                }
+                prevWaypoint = waypoint;
+                lane.add(waypoint);
+            }
+            if (circular && count > 0) {
+                prevWaypoint.setNext(lane.get(0));
+                lane.get(0).setPrev(prevWaypoint);
+            }
+            lanes.put(laneSelection, lane);
+        }
+
+        return lanes;
+    }
+
+    /**
+     * Save lanes to cache file
+     * @param lanes
+     */
+    void save(Map<Track.LaneSelection, ArrayList<Waypoint>> lanes) {
+        if (file == null) {
+            return;
+        }
+
+        // Write to temporary file first so that reader never sees partial file. Name of it is
+        // unique for each write, as models of the same track can be built at the same time.
+        File tempFile = null;
+        try {
+            tempFile = File.createTempFile(file.getName(), ".tmp", file.getParentFile());
+            DataOutputStream stream = new DataOutputStream(
+                    new BufferedOutputStream(new FileOutputStream(tempFile)));
+            try {
+                write(stream, lanes);
+            }
+            finally {
+                stream.close();
+            }
+
+            if (!tempFile.renameTo(file)) {
+                Log.e(LOG_TAG, "Failed to replace lane cache: " + file);
+                tempFile.delete();
+            }
+        }
+        catch (IOException e) {
+            Log.e(LOG_TAG, "Failed to save lane cache: " + file, e);
+            if (tempFile != null) {
+                tempFile.delete();
+            }
+        }
+    }
+
+    /**
+     *
+     * @param stream
+     * @param lanes
+     * @throws IOException
+     */
+    private void write(DataOutputStream stream, Map<Track.LaneSelection, ArrayList<Waypoint>> lanes)
+            throws IOException {
+        stream.writeInt(MAGIC);
+        stream.writeInt(VERSION);
+        stream.writeLong(data.getChecksum());
+        stream.writeInt(data.getWidth());
+        stream.writeInt(data.getHeight());
+        stream.writeInt(Float.floatToIntBits(scale));
+
+        for (Track.LaneSelection laneSelection : Track.LaneSelection.values()) {
+            ArrayList<Waypoint> lane = lanes.get(laneSelection);
+            stream.writeInt(lane.size());
+            stream.writeByte((lane.size() > 0 && lane.get(0).getNext() != null)? 1 : 0);
+
+            for (Waypoint waypoint : lane) {
+                Point pt = waypoint.getPosition();
+                stream.writeInt(pt.x);
+                stream.writeInt(pt.y);
+                stream.writeByte(waypoint.isValid()? 1 : 0);
+                stream.writeInt(waypoint.getCostToSearch());
+            }
+        }
+    }
+
+    private static File directory;
+
+    private TrackData data;
+    private float scale;
+    private File file;
+}
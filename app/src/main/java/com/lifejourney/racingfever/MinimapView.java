@@ -14,7 +14,6 @@ import com.lifejourney.engine2d.ResourceManager;
 import com.lifejourney.engine2d.Size;
 import com.lifejourney.engine2d.Sprite;
 import com.lifejourney.engine2d.View;
-import com.lifejourney.engine2d.Waypoint;
 
 import java.io.ByteArrayOutputStream;
 import java.nio.ByteBuffer;
@@ -43,15 +42,12 @@ class MinimapView implements View {
         Paint paint = new Paint();
         paint.setColor(Color.argb(255, 61, 61, 61));
 
-        ArrayList<Waypoint> waypoints = track.getLane(Track.LaneSelection.MIDDLE_LANE);
-        Waypoint prevWaypoint = null;
-        for (Waypoint waypoint: waypoints) {
-            if (prevWaypoint == null) {
-                prevWaypoint = waypoints.get(waypoints.size() - 1);
-            }
-            canvas.drawLine(prevWaypoint.getPosition().x, prevWaypoint.getPosition().y,
-                    waypoint.getPosition().x, waypoint.getPosition().y, paint);
-            prevWaypoint = waypoint;
+        PackedLane lane = track.getPackedLane(Track.LaneSelection.MIDDLE_LANE);
+        int prevWaypointIndex = lane.size() - 1;
+        for (int waypointIndex = 0; waypointIndex < lane.size(); ++waypointIndex) {
+            canvas.drawLine(lane.getX(prevWaypointIndex), lane.getY(prevWaypointIndex),
+                    lane.getX(waypointIndex), lane.getY(waypointIndex), paint);
+            prevWaypointIndex = waypointIndex;
         }
 
 
@@ -67,11 +63,15 @@ class MinimapView implements View {
                         .layer(VIEW_LAYER).visible(false).build();
     }
 
-    void setCars(ArrayList<Car> cars) {
-        this.cars = cars;
+    /**
+     * Positions of cars are read from snapshot published by world
+     * @param world
+     */
+    void setWorld(GameWorld world) {
+        this.world = world;
 
         // Create dot sprites
-        for (int i = 0; i < cars.size(); ++i) {
+        for (int i = 0; i < world.getCars().size(); ++i) {
             Sprite dot = new Sprite.Builder("minimap_dots.png")
                     .size(new Size(DOT_WIDTH, DOT_HEIGHT))
                     .smooth(false)
@@ -118,16 +118,22 @@ class MinimapView implements View {
             viewport.y + VIEW_Y + VIEW_HEIGHT/2);
         minimap.setPos(minimapPos);
         minimap.commit();
-        for (int i = 0; i < dots.size(); ++i) {
-            Sprite dot = dots.get(i);
-            Car car = cars.get(i);
-            Point dotPos =
-                    trackView.getTrackCoordFromScreenCoord(car.getPosition())
-                            .multiply(new PointF(dotXRatio, dotYRatio))
-                            .offset(viewport.x + VIEW_X,viewport.y + VIEW_Y);
-
-            dot.setPos(dotPos);
-            dot.commit();
+        WorldSnapshot snapshot = world.acquireSnapshot();
+        try {
+            for (int i = 0; i < dots.size() && i < snapshot.size(); ++i) {
+                Sprite dot = dots.get(i);
+                PointF carPosition = new PointF(snapshot.getX(i), snapshot.getY(i));
+                Point dotPos =
+                        trackView.getTrackCoordFromScreenCoord(carPosition)
+                                .multiply(new PointF(dotXRatio, dotYRatio))
+                                .offset(viewport.x + VIEW_X,viewport.y + VIEW_Y);
+
+                dot.setPos(dotPos);
+                dot.commit();
+            }
+        }
+        finally {
+            world.releaseSnapshot(snapshot);
         }
     }
 
@@ -163,7 +169,7 @@ class MinimapView implements View {
     private TrackData trackData;
     private TrackView trackView;
     private Sprite minimap;
-    private ArrayList<Car> cars;
+    private GameWorld world;
     private ArrayList<Sprite> dots;
     private boolean visible;
     private float dotXRatio, dotYRatio;
@@ -0,0 +1,143 @@
+package com.lifejourney.racingfever;
+
+import java.util.Arrays;
+
+/**
+ * Uniform grid spatial hash of obstacles. It's rebuilt once per tick and queried by radius,
+ * so neighbor lookup doesn't need to scan every obstacle.
+ */
+class ObstacleGrid {
+
+    /**
+     *
+     * @param cellSize
+     */
+    ObstacleGrid(float cellSize) {
+        this.cellSize = cellSize;
+        resize(16);
+    }
+
+    /**
+     *
+     * @param capacity
+     */
+    private void resize(int capacity) {
+        int bucketCount = Integer.highestOneBit(Math.max(capacity, 8) * 2 - 1) << 1;
+        bucketMask = bucketCount - 1;
+        bucketStart = new int[bucketCount + 1];
+        bucketFill = new int[bucketCount];
+        xs = new float[capacity];
+        ys = new float[capacity];
+        cellXs = new int[capacity];
+        cellYs = new int[capacity];
+        buckets = new int[capacity];
+        order = new int[capacity];
+    }
+
+    /**
+     * Rebuild grid with positions of obstacles in snapshot
+     * @param snapshot
+     */
+    void rebuild(WorldSnapshot snapshot) {
+        int count = snapshot.size();
+        if (count > xs.length) {
+            resize(count);
+        }
+
+        // Counting sort obstacles by bucket
+        Arrays.fill(bucketStart, 0);
+        for (int i = 0; i < count; ++i) {
+            xs[i] = snapshot.getX(i);
+            ys[i] = snapshot.getY(i);
+            cellXs[i] = toCell(xs[i]);
+            cellYs[i] = toCell(ys[i]);
+            buckets[i] = hash(cellXs[i], cellYs[i]);
+            bucketStart[buckets[i] + 1]++;
+        }
+        for (int b = 0; b < bucketFill.length; ++b) {
+            bucketStart[b + 1] += bucketStart[b];
+            bucketFill[b] = bucketStart[b];
+        }
+        for (int i = 0; i < count; ++i) {
+            order[bucketFill[buckets[i]]++] = i;
+        }
+        this.count = count;
+    }
+
+    /**
+     * Collect snapshot indices of obstacles whose position is within radius from (x, y).
+     * Result array should be able to hold all obstacles in the grid.
+     * @param x
+     * @param y
+     * @param radius
+     * @param result
+     * @return number of indices written to result
+     */
+    int query(float x, float y, float radius, int[] result) {
+        int resultCount = 0;
+        if (count == 0) {
+            return resultCount;
+        }
+
+        int minCellX = toCell(x - radius), maxCellX = toCell(x + radius);
+        int minCellY = toCell(y - radius), maxCellY = toCell(y + radius);
+        float radiusSq = radius * radius;
+
+        // Different cells can share a bucket, so check cell coordinate of each entry as well
+        for (int cellY = minCellY; cellY <= maxCellY; ++cellY) {
+            for (int cellX = minCellX; cellX <= maxCellX; ++cellX) {
+                int bucket = hash(cellX, cellY);
+                for (int e = bucketStart[bucket]; e < bucketStart[bucket + 1]; ++e) {
+                    int i = order[e];
+                    if (cellXs[i] != cellX || cellYs[i] != cellY) {
+                        continue;
+                    }
+
+                    float dx = xs[i] - x, dy = ys[i] - y;
+                    if (dx * dx + dy * dy <= radiusSq) {
+                        result[resultCount++] = i;
+                    }
+                }
+            }
+        }
+
+        return resultCount;
+    }
+
+    /**
+     *
+     * @param v
+     * @return
+     */
+    private int toCell(float v) {
+        return (int) Math.floor(v / cellSize);
+    }
+
+    /**
+     *
+     * @param cellX
+     * @param cellY
+     * @return
+     */
+    private int hash(int cellX, int cellY) {
+        return ((cellX * 73856093) ^ (cellY * 19349663)) & bucketMask;
+    }
+
+    /**
+     *
+     * @return
+     */
+    float getCellSize() {
+        return cellSize;
+    }
+
+    private float cellSize;
+    private int count;
+    private int bucketMask;
+    private int[] bucketStart;
+    private int[] bucketFill;
+    private int[] buckets;
+    private int[] order;
+    private float[] xs, ys;
+    private int[] cellXs, cellYs;
+}
@@ -0,0 +1,379 @@
+package com.lifejourney.racingfever;
+
+import com.lifejourney.engine2d.Point;
+import com.lifejourney.engine2d.Size;
+import com.lifejourney.engine2d.Waypoint;
+
+import java.util.BitSet;
+import java.util.List;
+
+/**
+ * Lane packed in arrays indexed by waypoint index. It's built once from waypoint list of a
+ * lane and never modified after, so drivers can read positions, costs and screen centers of
+ * waypoints without following waypoint references or allocating regions.
+ *
+ * Lane is a closed polyline through waypoint centers, segment i running from waypoint i to
+ * the next one. For projecting a point on it, cumulative arc length of waypoints and a coarse
+ * grid of segments passing near each cell are kept as well. A lane position is a waypoint
+ * index plus fraction along the segment starting there.
+ */
+class PackedLane {
+
+    /**
+     *
+     * @param lane
+     * @param tileSize
+     */
+    PackedLane(List<Waypoint> lane, Size tileSize) {
+        size = lane.size();
+        xs = new int[size];
+        ys = new int[size];
+        costs = new byte[size];
+        valid = new BitSet(size);
+        centerXs = new float[size];
+        centerYs = new float[size];
+
+        for (int i = 0; i < size; ++i) {
+            Waypoint waypoint = lane.get(i);
+            Point pt = waypoint.getPosition();
+            xs[i] = pt.x;
+            ys[i] = pt.y;
+            costs[i] = (byte) waypoint.getCostToSearch();
+            valid.set(i, waypoint.isValid());
+
+            // Same as center of the region from TrackModel.getScreenRegionfromTrackCoord
+            centerXs[i] = (float) (pt.x * tileSize.width) + tileSize.width / 2.0f;
+            centerYs[i] = (float) (pt.y * tileSize.height) + tileSize.height / 2.0f;
+        }
+
+        // Arc length along segments
+        segmentLengths = new float[size];
+        arcLengths = new float[size];
+        float length = 0.0f;
+        for (int i = 0; i < size; ++i) {
+            arcLengths[i] = length;
+            segmentLengths[i] = getDistanceToCenter(next(i), centerXs[i], centerYs[i]);
+            length += segmentLengths[i];
+        }
+        totalLength = length;
+
+        // Grid covering all centers with margin of a cell
+        cellSize = CELL_SIZE_IN_TILES * Math.max(tileSize.width, tileSize.height);
+        float minX = Float.MAX_VALUE, minY = Float.MAX_VALUE;
+        float maxX = -Float.MAX_VALUE, maxY = -Float.MAX_VALUE;
+        for (int i = 0; i < size; ++i) {
+            minX = Math.min(minX, centerXs[i]);
+            minY = Math.min(minY, centerYs[i]);
+            maxX = Math.max(maxX, centerXs[i]);
+            maxY = Math.max(maxY, centerYs[i]);
+        }
+        if (size == 0) {
+            minX = minY = maxX = maxY = 0.0f;
+        }
+        gridOriginX = minX - cellSize;
+        gridOriginY = minY - cellSize;
+        gridColumns = (int) ((maxX - gridOriginX) / cellSize) + 2;
+        gridRows = (int) ((maxY - gridOriginY) / cellSize) + 2;
+
+        // Register each segment to cells of its bounding box expanded by a cell, so that a
+        // cell has every segment within cellSize from any point in it. Segments of all cells
+        // are in one array, counted first and then placed.
+        int cellCount = gridColumns * gridRows;
+        int[] fromColumns = new int[size], toColumns = new int[size];
+        int[] fromRows = new int[size], toRows = new int[size];
+        cellStarts = new int[cellCount + 1];
+        for (int i = 0; i < size; ++i) {
+            fromColumns[i] = getColumn(Math.min(centerXs[i], centerXs[next(i)]) - cellSize);
+            toColumns[i] = getColumn(Math.max(centerXs[i], centerXs[next(i)]) + cellSize);
+            fromRows[i] = getRow(Math.min(centerYs[i], centerYs[next(i)]) - cellSize);
+            toRows[i] = getRow(Math.max(centerYs[i], centerYs[next(i)]) + cellSize);
+            for (int row = fromRows[i]; row <= toRows[i]; ++row) {
+                for (int column = fromColumns[i]; column <= toColumns[i]; ++column) {
+                    cellStarts[row * gridColumns + column + 1]++;
+                }
+            }
+        }
+        for (int cell = 0; cell < cellCount; ++cell) {
+            cellStarts[cell + 1] += cellStarts[cell];
+        }
+
+        cellSegments = new int[cellStarts[cellCount]];
+        int[] cellFill = new int[cellCount];
+        for (int i = 0; i < size; ++i) {
+            for (int row = fromRows[i]; row <= toRows[i]; ++row) {
+                for (int column = fromColumns[i]; column <= toColumns[i]; ++column) {
+                    int cell = row * gridColumns + column;
+                    cellSegments[cellStarts[cell] + cellFill[cell]++] = i;
+                }
+            }
+        }
+    }
+
+    /**
+     *
+     * @return
+     */
+    int size() {
+        return size;
+    }
+
+    /**
+     *
+     * @param waypointIndex
+     * @return x in map coord
+     */
+    int getX(int waypointIndex) {
+        return xs[waypointIndex];
+    }
+
+    /**
+     *
+     * @param waypointIndex
+     * @return y in map coord
+     */
+    int getY(int waypointIndex) {
+        return ys[waypointIndex];
+    }
+
+    /**
+     *
+     * @param waypointIndex
+     * @return
+     */
+    int getCostToSearch(int waypointIndex) {
+        return costs[waypointIndex];
+    }
+
+    /**
+     *
+     * @param waypointIndex
+     * @return
+     */
+    boolean isValid(int waypointIndex) {
+        return valid.get(waypointIndex);
+    }
+
+    /**
+     *
+     * @param waypointIndex
+     * @return x of waypoint region center in screen coord
+     */
+    float getCenterX(int waypointIndex) {
+        return centerXs[waypointIndex];
+    }
+
+    /**
+     *
+     * @param waypointIndex
+     * @return y of waypoint region center in screen coord
+     */
+    float getCenterY(int waypointIndex) {
+        return centerYs[waypointIndex];
+    }
+
+    /**
+     * Squared distance from a point to waypoint region center, which is the same value as
+     * PointF.distanceSq gives
+     * @param waypointIndex
+     * @param x
+     * @param y
+     * @return
+     */
+    float getDistanceSqToCenter(int waypointIndex, float x, float y) {
+        float dx = x - centerXs[waypointIndex];
+        float dy = y - centerYs[waypointIndex];
+        return (float) ((double) dx * dx + (double) dy * dy);
+    }
+
+    /**
+     *
+     * @param waypointIndex
+     * @param x
+     * @param y
+     * @return
+     */
+    float getDistanceToCenter(int waypointIndex, float x, float y) {
+        return (float) Math.sqrt(getDistanceSqToCenter(waypointIndex, x, y));
+    }
+
+    /**
+     *
+     * @return length of lane through waypoint centers
+     */
+    float getTotalLength() {
+        return totalLength;
+    }
+
+    /**
+     *
+     * @param waypointIndex
+     * @return arc length from waypoint 0 to waypointIndex
+     */
+    float getArcLength(int waypointIndex) {
+        return arcLengths[waypointIndex];
+    }
+
+    /**
+     *
+     * @param lanePosition
+     * @return arc length from waypoint 0 to lanePosition
+     */
+    float getArcLength(double lanePosition) {
+        int waypointIndex = (int) lanePosition;
+        return arcLengths[waypointIndex] +
+                (float) (lanePosition - waypointIndex) * segmentLengths[waypointIndex];
+    }
+
+    /**
+     * Project a point to the nearest segment among segmentCount segments from fromIndex.
+     * Segments near the point are looked up from the grid, and segments in the range are
+     * scanned only if the point is farther than a cell from all of them, so it costs the
+     * same regardless of the lane length.
+     * @param x
+     * @param y
+     * @param fromIndex
+     * @param segmentCount
+     * @return lane position of the projected point, in [0, size)
+     */
+    double project(float x, float y, int fromIndex, int segmentCount) {
+        segmentCount = Math.min(segmentCount, size);
+
+        int bestOffset = -1;
+        float bestDistanceSq = Float.MAX_VALUE;
+        float bestFraction = 0.0f;
+
+        // Look up candidates from grid
+        int column = (int) Math.floor((x - gridOriginX) / cellSize);
+        int row = (int) Math.floor((y - gridOriginY) / cellSize);
+        if (column >= 0 && column < gridColumns && row >= 0 && row < gridRows) {
+            int cell = row * gridColumns + column;
+            for (int i = cellStarts[cell]; i < cellStarts[cell + 1]; ++i) {
+                int segment = cellSegments[i];
+                int offset = (segment - fromIndex + size) % size;
+                if (offset >= segmentCount) {
+                    continue;
+                }
+
+                float fraction = getProjectedFraction(segment, x, y);
+                float distanceSq = getDistanceSqToSegment(segment, fraction, x, y);
+                if (distanceSq < bestDistanceSq ||
+                        (distanceSq == bestDistanceSq && offset < bestOffset)) {
+                    bestOffset = offset;
+                    bestDistanceSq = distanceSq;
+                    bestFraction = fraction;
+                }
+            }
+        }
+
+        // Nearer one can be out of the cell only if the best is farther than a cell
+        if (bestOffset == -1 || bestDistanceSq > cellSize * cellSize) {
+            bestOffset = -1;
+            bestDistanceSq = Float.MAX_VALUE;
+            for (int offset = 0; offset < segmentCount; ++offset) {
+                int segment = (fromIndex + offset) % size;
+                float fraction = getProjectedFraction(segment, x, y);
+                float distanceSq = getDistanceSqToSegment(segment, fraction, x, y);
+                if (distanceSq < bestDistanceSq) {
+                    bestOffset = offset;
+                    bestDistanceSq = distanceSq;
+                    bestFraction = fraction;
+                }
+            }
+        }
+
+        double lanePosition = (fromIndex + bestOffset) % size + (double) bestFraction;
+        return (lanePosition >= size) ? lanePosition - size : lanePosition;
+    }
+
+    /**
+     *
+     * @param segment
+     * @param x
+     * @param y
+     * @return fraction of the point projected on segment, clamped to [0, 1]
+     */
+    private float getProjectedFraction(int segment, float x, float y) {
+        float dx = centerXs[next(segment)] - centerXs[segment];
+        float dy = centerYs[next(segment)] - centerYs[segment];
+        float lengthSq = dx * dx + dy * dy;
+        if (lengthSq == 0.0f) {
+            return 0.0f;
+        }
+
+        float fraction = ((x - centerXs[segment]) * dx + (y - centerYs[segment]) * dy) / lengthSq;
+        return Math.max(0.0f, Math.min(1.0f, fraction));
+    }
+
+    /**
+     *
+     * @param segment
+     * @param fraction
+     * @param x
+     * @param y
+     * @return
+     */
+    private float getDistanceSqToSegment(int segment, float fraction, float x, float y) {
+        float px = centerXs[segment] + (centerXs[next(segment)] - centerXs[segment]) * fraction;
+        float py = centerYs[segment] + (centerYs[next(segment)] - centerYs[segment]) * fraction;
+        return (x - px) * (x - px) + (y - py) * (y - py);
+    }
+
+    /**
+     *
+     * @param waypointIndex
+     * @return
+     */
+    private int next(int waypointIndex) {
+        return (waypointIndex + 1) % size;
+    }
+
+    /**
+     *
+     * @param x
+     * @return column of grid, clamped into grid
+     */
+    private int getColumn(float x) {
+        return Math.max(0, Math.min(gridColumns - 1, (int) ((x - gridOriginX) / cellSize)));
+    }
+
+    /**
+     *
+     * @param y
+     * @return row of grid, clamped into grid
+     */
+    private int getRow(float y) {
+        return Math.max(0, Math.min(gridRows - 1, (int) ((y - gridOriginY) / cellSize)));
+    }
+
+    /**
+     *
+     * @param waypointIndex
+     * @param other
+     * @param otherWaypointIndex
+     * @return true if both waypoints are on the same map coord
+     */
+    boolean isSamePosition(int waypointIndex, PackedLane other, int otherWaypointIndex) {
+        return xs[waypointIndex] == other.xs[otherWaypointIndex] &&
+                ys[waypointIndex] == other.ys[otherWaypointIndex];
+    }
+
+    private final int CELL_SIZE_IN_TILES = 4;
+
+    private final int size;
+    private final int[] xs;
+    private final int[] ys;
+    private final byte[] costs;
+    private final BitSet valid;
+    private final float[] centerXs;
+    private final float[] centerYs;
+
+    // Projection index
+    private final float[] segmentLengths;
+    private final float[] arcLengths;
+    private final float totalLength;
+    private final float cellSize;
+    private final float gridOriginX, gridOriginY;
+    private final int gridColumns, gridRows;
+    private final int[] cellStarts;
+    private final int[] cellSegments;
+}
@@ -0,0 +1,286 @@
+package com.lifejourney.racingfever;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Runs many independent races in headless worlds, one race per worker thread at a time.
+ * Races share nothing but the immutable track model, so throughput scales with the number
+ * of workers and memory doesn't grow by a track per race. The exception is native engine,
+ * where cars create and release debug shapes, so Car serializes creating and closing them.
+ * It's for tuning driver constants without watching races.
+ */
+class RaceBatchRunner {
+
+    /**
+     * Setup of a race
+     */
+    static class Race {
+
+        static class Builder {
+            TrackModel trackModel;
+            long seed;
+
+            // Optional parameter
+            int numberOfCars = 0;
+            DriverTuning tuning = DriverTuning.DEFAULT;
+            int laps = 1;
+            int maxTicks = 20 * 60 * 10; // 10 minutes at 20 fps
+
+            /**
+             *
+             * @param trackModel
+             * @param seed
+             */
+            Builder(TrackModel trackModel, long seed) {
+                this.trackModel = trackModel;
+                this.seed = seed;
+            }
+            Builder numberOfCars(int numberOfCars) {
+                this.numberOfCars = numberOfCars;
+                return this;
+            }
+            Builder tuning(DriverTuning tuning) {
+                this.tuning = tuning;
+                return this;
+            }
+            Builder laps(int laps) {
+                this.laps = laps;
+                return this;
+            }
+            Builder maxTicks(int maxTicks) {
+                this.maxTicks = maxTicks;
+                return this;
+            }
+            Race build() {
+                return new Race(this);
+            }
+        }
+
+        private Race(Builder builder) {
+            trackModel = builder.trackModel;
+            seed = builder.seed;
+            numberOfCars = builder.numberOfCars;
+            tuning = builder.tuning;
+            laps = builder.laps;
+            maxTicks = builder.maxTicks;
+        }
+
+        final TrackModel trackModel;
+        final long seed;
+        final int numberOfCars;
+        final DriverTuning tuning;
+        final int laps;
+        final int maxTicks;
+    }
+
+    /**
+     * Result of a driver in a race
+     */
+    static class DriverResult {
+
+        DriverResult(String name, long[] lapTicks, int collisionCount) {
+            this.name = name;
+            this.lapTicks = lapTicks;
+            this.collisionCount = collisionCount;
+        }
+
+        /**
+         *
+         * @return true if the driver completed all laps before the race ended
+         */
+        boolean isFinished() {
+            return lapTicks.length > 0 && lapTicks[lapTicks.length - 1] > 0;
+        }
+
+        @Override
+        public String toString() {
+            return name + " laps=" + Arrays.toString(lapTicks) + " collisions=" + collisionCount;
+        }
+
+        final String name;
+        // Ticks taken for each lap, 0 for the laps not completed
+        final long[] lapTicks;
+        final int collisionCount;
+    }
+
+    /**
+     * Result of a race
+     */
+    static class RaceResult {
+
+        RaceResult(Race race, long ticks, ArrayList<DriverResult> finishOrder) {
+            this.race = race;
+            this.ticks = ticks;
+            this.finishOrder = finishOrder;
+        }
+
+        @Override
+        public String toString() {
+            StringBuilder builder = new StringBuilder();
+            builder.append("seed=").append(race.seed).append(" ticks=").append(ticks)
+                    .append(" tuning: ").append(race.tuning);
+            for (int i = 0; i < finishOrder.size(); ++i) {
+                builder.append('\n').append(i + 1).append(". ").append(finishOrder.get(i));
+            }
+            return builder.toString();
+        }
+
+        final Race race;
+        final long ticks;
+        // Drivers who finished in order of finishing, then the others in order of rank
+        final ArrayList<DriverResult> finishOrder;
+    }
+
+    /**
+     *
+     * @param workerCount
+     */
+    RaceBatchRunner(int workerCount) {
+        executor = Executors.newFixedThreadPool(workerCount);
+    }
+
+    /**
+     * Races of every combination of tunings and seeds
+     * @param trackModel
+     * @param tunings
+     * @param seeds
+     * @param numberOfCars
+     * @param laps
+     * @return
+     */
+    static ArrayList<Race> sweep(TrackModel trackModel, List<DriverTuning> tunings,
+                                 long[] seeds, int numberOfCars, int laps) {
+        ArrayList<Race> races = new ArrayList<>();
+        for (DriverTuning tuning : tunings) {
+            for (long seed : seeds) {
+                races.add(new Race.Builder(trackModel, seed).tuning(tuning)
+                        .numberOfCars(numberOfCars).laps(laps).build());
+            }
+        }
+        return races;
+    }
+
+    /**
+     * Run races and wait for all of them
+     * @param races
+     * @return results in the same order as races
+     * @throws InterruptedException
+     */
+    ArrayList<RaceResult> run(List<Race> races) throws InterruptedException {
+        ArrayList<Future<RaceResult>> futures = new ArrayList<>(races.size());
+        for (final Race race : races) {
+            futures.add(executor.submit(new Callable<RaceResult>() {
+                @Override
+                public RaceResult call() {
+                    return simulate(race);
+                }
+            }));
+        }
+
+        ArrayList<RaceResult> results = new ArrayList<>(races.size());
+        for (Future<RaceResult> future : futures) {
+            try {
+                results.add(future.get());
+            }
+            catch (ExecutionException e) {
+                throw new IllegalStateException("Race failed", e.getCause());
+            }
+        }
+        return results;
+    }
+
+    /**
+     *
+     */
+    void shutdown() {
+        executor.shutdown();
+    }
+
+    /**
+     * Run a race until every driver completes all laps or it reaches max ticks
+     * @param race
+     * @return
+     */
+    static RaceResult simulate(Race race) {
+        GameWorld world = new GameWorld(race.trackModel, race.numberOfCars, race.seed,
+                race.tuning);
+        try {
+            return simulate(race, world);
+        }
+        finally {
+            // Cars hold native debug shapes of engine even in headless world
+            world.close();
+        }
+    }
+
+    /**
+     *
+     * @param race
+     * @param world
+     * @return
+     */
+    private static RaceResult simulate(Race race, GameWorld world) {
+        // Cars are in fixed order while drivers are sorted by rank every tick
+        ArrayList<Car> cars = world.getCars();
+        int carCount = cars.size();
+        long[][] lapEndTicks = new long[carCount][race.laps];
+        int[] completedLaps = new int[carCount];
+        ArrayList<Integer> finishers = new ArrayList<>();
+
+        while (world.getTickCount() < race.maxTicks && finishers.size() < carCount) {
+            world.step();
+
+            for (int i = 0; i < carCount; ++i) {
+                Driver driver = cars.get(i).getDriver();
+                if (driver == null) {
+                    continue;
+                }
+                while (completedLaps[i] < race.laps && completedLaps[i] < driver.getLap()) {
+                    lapEndTicks[i][completedLaps[i]++] = world.getTickCount();
+                    if (completedLaps[i] == race.laps) {
+                        finishers.add(i);
+                    }
+                }
+            }
+        }
+
+        ArrayList<DriverResult> finishOrder = new ArrayList<>(carCount);
+        for (int i : finishers) {
+            finishOrder.add(getDriverResult(cars.get(i), lapEndTicks[i], completedLaps[i]));
+        }
+        for (Driver driver : world.getDrivers()) {
+            for (int i = 0; i < carCount; ++i) {
+                if (cars.get(i).getDriver() == driver && completedLaps[i] < race.laps) {
+                    finishOrder.add(getDriverResult(cars.get(i), lapEndTicks[i],
+                            completedLaps[i]));
+                }
+            }
+        }
+
+        return new RaceResult(race, world.getTickCount(), finishOrder);
+    }
+
+    /**
+     *
+     * @param car
+     * @param lapEndTicks
+     * @param completedLaps
+     * @return
+     */
+    private static DriverResult getDriverResult(Car car, long[] lapEndTicks, int completedLaps) {
+        long[] lapTicks = new long[lapEndTicks.length];
+        for (int lap = 0; lap < completedLaps; ++lap) {
+            lapTicks[lap] = lapEndTicks[lap] - ((lap > 0) ? lapEndTicks[lap - 1] : 0);
+        }
+        return new DriverResult(car.getDriver().getName(), lapTicks, car.getCollisionCount());
+    }
+
+    private ExecutorService executor;
+}
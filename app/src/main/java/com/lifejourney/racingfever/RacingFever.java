@@ -199,6 +199,8 @@ public class RacingFever extends FragmentActivity implements Choreographer.Frame
      *
      */
     protected void initResources() {
+        LaneCache.setDirectory(getCacheDir());
+        TrackChunkRenderer.loadAtlas(getAssets());
         world = new GameWorld();
     }
 
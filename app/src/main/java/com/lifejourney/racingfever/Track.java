@@ -1,21 +1,17 @@
 package com.lifejourney.racingfever;
 
-import android.util.Log;
-
-import com.lifejourney.engine2d.Point;
 import com.lifejourney.engine2d.PointF;
 import com.lifejourney.engine2d.RectF;
-import com.lifejourney.engine2d.Vector2D;
 import com.lifejourney.engine2d.Waypoint;
 
 import java.util.ArrayList;
-import java.util.HashMap;
-import java.util.Map;
 
+/**
+ * Track of a world. Map data, lanes and queries on them are in TrackModel which can be shared
+ * by many worlds, while TrackView keeps tile sprites of this world.
+ */
 class Track {
 
-    private static final String LOG_TAG = "Track";
-
     enum LaneSelection {
         INVALID_LANE(8),
         L2_LANE(6),
@@ -37,167 +33,51 @@ class Track {
 
     Track(String mapAsset, float scale) {
         // Load and setup map data
-        data = new TrackData(mapAsset);
+        this(new TrackData(mapAsset), scale, false);
+    }
 
-        // Prepare track view
-        view = new TrackView(data, scale);
-        view.show();
+    /**
+     * In headless mode, track view is never shown so no sprite is created for tiles.
+     * @param data
+     * @param scale
+     * @param headless
+     */
+    Track(TrackData data, float scale, boolean headless) {
+        this(new TrackModel(data, scale), headless);
+    }
 
-        // Find suitable paths
-        searchLanes();
+    /**
+     * Build lanes around the optimal lane given instead of searching it. Track is always
+     * headless and lane cache is not used.
+     * @param data
+     * @param scale
+     * @param optimalLane
+     */
+    Track(TrackData data, float scale, ArrayList<Waypoint> optimalLane) {
+        this(new TrackModel(data, scale, optimalLane), true);
     }
 
     /**
      *
+     * @param model model which may be shared with other tracks
+     * @param headless
      */
-    private void searchLanes() {
-        lanes = new HashMap<>();
-
-        // Find optimal lane
-        ArrayList<Waypoint> optimalLane = new TrackPathFinder(data).findOptimalPath();
-        lanes.put(LaneSelection.INVALID_LANE, optimalLane);
-
-        // Find left and right boundary lane
-        ArrayList<Waypoint> l2Lane = new ArrayList<>();
-        ArrayList<Waypoint> r2Lane = new ArrayList<>();
-        ArrayList<Waypoint> l1Lane = new ArrayList<>();
-        ArrayList<Waypoint> r1Lane = new ArrayList<>();
-        ArrayList<Waypoint> middleLane = new ArrayList<>();
-        Waypoint prevL2Waypoint = null;
-        Waypoint prevR2Waypoint = null;
-        Waypoint prevL1Waypoint = null;
-        Waypoint prevR1Waypoint = null;
-        Waypoint prevMiddleWaypoint = null;
-        for (int index = 0; index < optimalLane.size(); ++index) {
-            int prevIndex = (index == 0)? optimalLane.size() - 1 : index - 1;
+    Track(TrackModel model, boolean headless) {
+        this.model = model;
 
-            Waypoint currentWaypoint = optimalLane.get(index);
-            Waypoint prevWaypoint = optimalLane.get(prevIndex);
-
-            Point currentWaypointPt = currentWaypoint.getPosition();
-            Point prevWaypointPt = prevWaypoint.getPosition();
-
-            Vector2D delta = currentWaypointPt.vectorize().subtract(prevWaypointPt.vectorize());
-            Vector2D crossRoad = delta.perpendicular();
-
-            // Find l2 path
-            Point l2 = getBoundaryRoadCoordinate(currentWaypointPt, crossRoad.direction());
-            Waypoint l2Waypoint = new Waypoint(l2, null, 0.0f);
-            l2Waypoint.setValid(!l2Lane.contains(l2Waypoint));
-            l2Waypoint.setPrev(prevL2Waypoint);
-            if (prevL2Waypoint != null) {
-                prevL2Waypoint.setNext(l2Waypoint);
-            }
-            prevL2Waypoint = l2Waypoint;
-            l2Lane.add(l2Waypoint);
-
-            // Find r2 path
-            Point r2 = getBoundaryRoadCoordinate(currentWaypointPt, crossRoad.multiply(-1)
-                    .direction());
-            Waypoint r2Waypoint = new Waypoint(r2, null, 0.0f);
-            r2Waypoint.setValid(!r2Lane.contains(r2Waypoint));
-            r2Waypoint.setPrev(prevR2Waypoint);
-            if (prevR2Waypoint != null) {
-                prevR2Waypoint.setNext(r2Waypoint);
-            }
-            prevR2Waypoint = r2Waypoint;
-            r2Lane.add(r2Waypoint);
-
-            // Find middle path
-            Point middle = new Point(l2).add(r2).divide(2.0f);
-            Waypoint middleWaypoint = new Waypoint(middle, null, 0.0f);
-            middleWaypoint.setValid(!middleLane.contains(middleWaypoint));
-            middleWaypoint.setPrev(prevMiddleWaypoint);
-            if (prevMiddleWaypoint != null) {
-                prevMiddleWaypoint.setNext(middleWaypoint);
-            }
-            prevMiddleWaypoint = middleWaypoint;
-            middleLane.add(middleWaypoint);
-
-            // Find l1 path
-            Point l1 = new Point(l2).add(middle).divide(2.0f);
-            Waypoint l1Waypoint = new Waypoint(l1, null, 0.0f);
-            l1Waypoint.setValid(!l1Lane.contains(l1Waypoint));
-            l1Waypoint.setPrev(prevL1Waypoint);
-            if (prevL1Waypoint != null) {
-                prevL1Waypoint.setNext(l1Waypoint);
-            }
-            prevL1Waypoint = l1Waypoint;
-            l1Lane.add(l1Waypoint);
-
-            // Find r1 path
-            Point r1 = new Point(r2).add(middle).divide(2.0f);
-            Waypoint r1Waypoint = new Waypoint(r1, null, 0.0f);
-            r1Waypoint.setValid(!r1Lane.contains(r1Waypoint));
-            r1Waypoint.setPrev(prevR1Waypoint);
-            if (prevR1Waypoint != null) {
-                prevR1Waypoint.setNext(r1Waypoint);
-            }
-            prevR1Waypoint = r1Waypoint;
-            r1Lane.add(r1Waypoint);
-        }
-        if (l2Lane.size() > 0) {
-            assert prevL2Waypoint != null;
-            prevL2Waypoint.setNext(l2Lane.get(0));
-            l2Lane.get(0).setPrev(prevL2Waypoint);
-            calcCostToSearch(l2Lane);
-        }
-        if (r2Lane.size() > 0) {
-            assert prevR2Waypoint != null;
-            prevR2Waypoint.setNext(r2Lane.get(0));
-            r2Lane.get(0).setPrev(prevR2Waypoint);
-            calcCostToSearch(r2Lane);
-        }
-        if (l1Lane.size() > 0) {
-            assert prevL1Waypoint != null;
-            prevL1Waypoint.setNext(l1Lane.get(0));
-            l1Lane.get(0).setPrev(prevL1Waypoint);
-            calcCostToSearch(l1Lane);
-        }
-        if (r1Lane.size() > 0) {
-            assert prevR1Waypoint != null;
-            prevR1Waypoint.setNext(r1Lane.get(0));
-            r1Lane.get(0).setPrev(prevR1Waypoint);
-            calcCostToSearch(r1Lane);
-        }
-        if (middleLane.size() > 0) {
-            assert prevMiddleWaypoint != null;
-            prevMiddleWaypoint.setNext(middleLane.get(0));
-            middleLane.get(0).setPrev(prevMiddleWaypoint);
-            calcCostToSearch(middleLane);
+        // Prepare track view
+        view = new TrackView(model);
+        if (!headless) {
+            view.show();
         }
-
-        lanes.put(LaneSelection.L1_LANE, l1Lane);
-        lanes.put(LaneSelection.R1_LANE, r1Lane);
-        lanes.put(LaneSelection.L2_LANE, l2Lane);
-        lanes.put(LaneSelection.R2_LANE, r2Lane);
-        lanes.put(LaneSelection.MIDDLE_LANE, middleLane);
     }
 
     /**
      *
-     * @param lane
+     * @return
      */
-    private void calcCostToSearch(ArrayList<Waypoint> lane) {
-        for (Waypoint waypoint: lane) {
-            Waypoint prevWaypoint = waypoint.getPrev();
-            Waypoint nextWaypoint = waypoint.getNext();
-
-            Point prevPt = prevWaypoint.getPosition();
-            Point curPt = waypoint.getPosition();
-            Point nextPt = nextWaypoint.getPosition();
-
-            Vector2D prevDirection = curPt.vectorize().subtract(prevPt.vectorize());
-            Vector2D nextDirection = nextPt.vectorize().subtract(curPt.vectorize());
-            float angle = prevDirection.angle(nextDirection);
-
-            if (angle > 20.0f) {
-                waypoint.setCostToSearch(2);
-            }
-            else if (angle > 40.0f) {
-                waypoint.setCostToSearch(3);
-            }
-        }
+    TrackModel getModel() {
+        return model;
     }
 
     /**
@@ -205,7 +85,7 @@ class Track {
      * @return
      */
     TrackData getData() {
-        return data;
+        return model.getData();
     }
 
     /**
@@ -221,8 +101,8 @@ class Track {
      * @param laneSelection
      * @return
      */
-    ArrayList<Waypoint> getLane(LaneSelection laneSelection) {
-        return lanes.get(laneSelection);
+    PackedLane getPackedLane(LaneSelection laneSelection) {
+        return model.getPackedLane(laneSelection);
     }
 
     /**
@@ -241,49 +121,24 @@ class Track {
 
     /**
      *
-     * @param pt
-     * @param direction
+     * @param start
+     * @param end
      * @return
      */
-    private Point getBoundaryRoadCoordinate(Point pt, float direction) {
-        if (!data.isMovable(pt)) {
-            return null;
-        }
-
-        PointF screenPt = view.getScreenRegionfromTrackCoord(pt).center();
-        ArrayList<Point> points = view.getRaytracedTileList(screenPt, direction,
-                view.getTileSize().width*10);
-        Point prevPt = points.get(0);
-        for (Point p : points) {
-            if (!data.isMovable(p)) {
-                return prevPt;
-            }
-
-            prevPt = p;
-        }
-        return points.get(points.size()-1);
+    float getNearestDistanceToRoadBlock(PointF start, PointF end) {
+        return model.getNearestDistanceToRoadBlock(start, end);
     }
 
     /**
      *
-     * @param start
-     * @param end
+     * @param startX
+     * @param startY
+     * @param endX
+     * @param endY
      * @return
      */
-    float getNearestDistanceToRoadBlock(PointF start, PointF end) {
-        if (!data.isMovable(view.getTrackCoordFromScreenCoord(start))) {
-            return 0.0f;
-        }
-
-        ArrayList<Point> points = view.getRaytracedTileList(start, end);
-        for (Point p : points) {
-            if (!data.isMovable(p)) {
-                PointF blockPosition = view.getScreenRegionfromTrackCoord(p).center();
-                return start.distance(blockPosition);
-            }
-        }
-
-        return Float.MAX_VALUE;
+    float getNearestDistanceToRoadBlock(float startX, float startY, float endX, float endY) {
+        return model.getNearestDistanceToRoadBlock(startX, startY, endX, endY);
     }
 
     /**
@@ -294,37 +149,26 @@ class Track {
      * @return
      */
     float getNearestDistanceToRoadBlock(PointF pt, float direction, float maxDistance) {
-        if (!data.isMovable(view.getTrackCoordFromScreenCoord(pt))) {
-            return 0.0f;
-        }
-
-        ArrayList<Point> points = view.getRaytracedTileList(pt, direction, maxDistance);
-        Vector2D endVector = new Vector2D(direction).multiply(maxDistance);
-
-        for (Point p : points) {
-            if (!data.isMovable(p)) {
-                PointF blockPosition = view.getScreenRegionfromTrackCoord(p).center();
-                return pt.distance(blockPosition);
-            }
-        }
+        return model.getNearestDistanceToRoadBlock(pt, direction, maxDistance);
+    }
 
-        return Float.MAX_VALUE;
+    /**
+     *
+     * @param pt
+     * @return
+     */
+    float getClearanceToRoadBlock(PointF pt) {
+        return model.getClearanceToRoadBlock(pt);
     }
 
+    /**
+     *
+     * @param waypointIndex
+     * @param pt
+     * @return
+     */
     LaneSelection getNearestLaneFromCurrentPosition(int waypointIndex, PointF pt) {
-        float nearestDistance = Float.MAX_VALUE;
-        LaneSelection nearestLane = null;
-        for (int i = 1; i < LaneSelection.values().length; ++i) {
-            float distance =
-                    getWaypointRegion(LaneSelection.values()[i], waypointIndex)
-                            .center().distance(pt);
-            if (distance < nearestDistance) {
-                nearestDistance = distance;
-                nearestLane = LaneSelection.values()[i];
-            }
-        }
-
-        return nearestLane;
+        return model.getNearestLaneFromCurrentPosition(waypointIndex, pt);
     }
 
     /**
@@ -334,8 +178,28 @@ class Track {
      * @return
      */
     RectF getWaypointRegion(Track.LaneSelection selection, int waypointIndex) {
-        Point targetMap = getLane(selection).get(waypointIndex).getPosition();
-        return getView().getScreenRegionfromTrackCoord(targetMap);
+        return model.getWaypointRegion(selection, waypointIndex);
+    }
+
+    /**
+     *
+     * @param selection
+     * @param waypointIndex
+     * @param region region to be filled
+     * @return region
+     */
+    RectF getWaypointRegion(Track.LaneSelection selection, int waypointIndex, RectF region) {
+        return model.getWaypointRegion(selection, waypointIndex, region);
+    }
+
+    /**
+     *
+     * @param selection
+     * @param waypointIndex
+     * @return
+     */
+    float getWaypointCenterX(Track.LaneSelection selection, int waypointIndex) {
+        return model.getWaypointCenterX(selection, waypointIndex);
     }
 
     /**
@@ -344,8 +208,8 @@ class Track {
      * @param waypointIndex
      * @return
      */
-    Point getWaypointPositionInMapCoord(Track.LaneSelection selection, int waypointIndex) {
-        return getLane(selection).get(waypointIndex).getPosition();
+    float getWaypointCenterY(Track.LaneSelection selection, int waypointIndex) {
+        return model.getWaypointCenterY(selection, waypointIndex);
     }
 
     /**
@@ -357,11 +221,8 @@ class Track {
      */
     int getDistanceBetweenWaypointIndex(LaneSelection laneSelection,
                                         int waypointIndex1, int waypointIndex2) {
-        int totaNumberOfWaypoints = getLane(laneSelection).size();
-
-        return Math.min(Math.abs(waypointIndex1-waypointIndex2),
-                Math.abs(totaNumberOfWaypoints-Math.max(waypointIndex1, waypointIndex2)+
-                        Math.min(waypointIndex1, waypointIndex2)));
+        return model.getDistanceBetweenWaypointIndex(laneSelection, waypointIndex1,
+                waypointIndex2);
     }
 
     /**
@@ -371,16 +232,7 @@ class Track {
      * @return
      */
     int findNextValidWaypoint(Track.LaneSelection laneSelection, int waypointIndex) {
-        int waypointCount = getLane(laneSelection).size();
-        for (int i = 1; i < waypointCount; ++i) {
-            int newWaypointIndex = (waypointIndex + i) % waypointCount;
-            if (getLane(laneSelection).get(newWaypointIndex).isValid())
-                return newWaypointIndex;
-        }
-
-        // This shouldn't be happend
-        Log.e(LOG_TAG, "There's no valid waypoint found");
-        return -1;
+        return model.findNextValidWaypoint(laneSelection, waypointIndex);
     }
 
     /**
@@ -393,26 +245,10 @@ class Track {
     int getWaypointCountWhichCanBeSearched(Track.LaneSelection laneSelection,
                                            int currentIndex,
                                            int maxSearchableScore) {
-
-        if (maxSearchableScore == 0) {
-            maxSearchableScore = laneSelection.maxSearchRange();
-        }
-
-        int waypointCount = getLane(laneSelection).size();
-        int i = 1, score = 1;
-        for (; i < maxSearchableScore && score < maxSearchableScore; ++i) {
-            int waypointIndex = (currentIndex + i) % waypointCount;
-            Waypoint waypoint = getLane(laneSelection).get(waypointIndex);
-            if (!waypoint.isValid())
-                continue;
-            score += waypoint.getCostToSearch();
-        }
-
-        return i;
+        return model.getWaypointCountWhichCanBeSearched(laneSelection, currentIndex,
+                maxSearchableScore);
     }
 
-
-    private TrackData data;
+    private TrackModel model;
     private TrackView view;
-    private Map<LaneSelection, ArrayList<Waypoint>> lanes;
 }
@@ -0,0 +1,337 @@
+package com.lifejourney.racingfever;
+
+import android.content.res.AssetManager;
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import android.graphics.Canvas;
+import android.util.Log;
+
+import com.lifejourney.engine2d.Engine2D;
+import com.lifejourney.engine2d.Point;
+import com.lifejourney.engine2d.Rect;
+import com.lifejourney.engine2d.ResourceManager;
+import com.lifejourney.engine2d.Size;
+import com.lifejourney.engine2d.Sprite;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Arrays;
+
+/**
+ * Renders track by chunks of CHUNK_TILES x CHUNK_TILES tiles, so only one sprite is committed
+ * per chunk instead of one per tile. All chunks are baked from tile atlas and encoded once
+ * when renderer is created, so a chunk coming into cached region only creates its sprite from
+ * the encoded image. Chunks are evicted only when they're more than EVICTION_MARGIN_CHUNKS out
+ * of cached region, so moving back and forth across a chunk boundary doesn't reload them.
+ *
+ * Evicted chunk sprites are hidden and pooled with their textures resident, up to
+ * MAX_POOLED_CHUNKS of them, and shown again when the chunk comes back. When the pool is full,
+ * the chunk farthest from cached region is released. A sprite is built only for a chunk which
+ * is not pooled, so laps of a track no larger than cached region plus pool build nothing.
+ */
+class TrackChunkRenderer {
+
+    private static final String LOG_TAG = "TrackChunkRenderer";
+
+    static final int CHUNK_TILES = 16;
+
+    /**
+     * Load tile atlas from assets. Chunk rendering is available only if atlas is loaded.
+     * @param assetManager
+     */
+    static void loadAtlas(AssetManager assetManager) {
+        try {
+            InputStream stream = assetManager.open(ATLAS_ASSET);
+            try {
+                atlas = BitmapFactory.decodeStream(stream);
+            }
+            finally {
+                stream.close();
+            }
+        }
+        catch (IOException e) {
+            Log.e(LOG_TAG, "Failed to load tile atlas: " + ATLAS_ASSET, e);
+            atlas = null;
+        }
+    }
+
+    /**
+     *
+     * @return
+     */
+    static boolean isAvailable() {
+        return atlas != null;
+    }
+
+    /**
+     *
+     * @param data
+     * @param textureGrids atlas grid index of each tile
+     * @param gridColumns
+     * @param gridRows
+     * @param tileSize
+     * @param layer
+     */
+    TrackChunkRenderer(TrackData data, byte[] textureGrids, int gridColumns, int gridRows,
+                       Size tileSize, int layer) {
+        this.data = data;
+        this.textureGrids = textureGrids;
+        this.gridColumns = gridColumns;
+        this.layer = layer;
+        this.chunks = new CoordMap<>();
+        this.pooledChunks = new CoordMap<>();
+        this.chunkScreenSize = new Size(tileSize.width * CHUNK_TILES,
+                tileSize.height * CHUNK_TILES);
+
+        atlasTileWidth = atlas.getWidth() / gridColumns;
+        atlasTileHeight = atlas.getHeight() / gridRows;
+        chunkBitmap = Bitmap.createBitmap(atlasTileWidth * CHUNK_TILES,
+                atlasTileHeight * CHUNK_TILES, Bitmap.Config.ARGB_8888);
+        chunkCanvas = new Canvas(chunkBitmap);
+        pngStream = new ByteArrayOutputStream();
+
+        // Bake all chunks at loading, bitmap is not needed after that
+        chunkColumns = (data.getWidth() + CHUNK_TILES - 1) / CHUNK_TILES;
+        chunkRows = (data.getHeight() + CHUNK_TILES - 1) / CHUNK_TILES;
+        chunkImages = new byte[chunkColumns * chunkRows][];
+        for (int chunkY = 0; chunkY < chunkRows; ++chunkY) {
+            for (int chunkX = 0; chunkX < chunkColumns; ++chunkX) {
+                chunkImages[chunkY * chunkColumns + chunkX] = bakeChunk(chunkX, chunkY);
+            }
+        }
+        chunkBitmap.recycle();
+        chunkBitmap = null;
+        chunkCanvas = null;
+        pngStream = null;
+    }
+
+    /**
+     *
+     */
+    void close() {
+        releaseAll(chunks);
+        releaseAll(pooledChunks);
+    }
+
+    /**
+     *
+     * @param map
+     */
+    private void releaseAll(CoordMap<Sprite> map) {
+        ResourceManager resourceManager = Engine2D.GetInstance().getResourceManager();
+        for (int slot = 0; slot < map.capacity(); ++slot) {
+            if (map.isOccupied(slot)) {
+                map.valueAt(slot).close();
+                resourceManager.releaseTexture(getChunkName(map.keyAt(slot)));
+            }
+        }
+        map.clear();
+    }
+
+    /**
+     * Evict chunks out of cached region by more than margin to pool and load chunks coming in
+     * @param cachedRegion
+     * @param visible
+     */
+    void update(Rect cachedRegion, boolean visible) {
+        int minChunkX = cachedRegion.left() / chunkScreenSize.width;
+        int maxChunkX = Math.min((cachedRegion.right() - 1) / chunkScreenSize.width,
+                chunkColumns - 1);
+        int minChunkY = cachedRegion.top() / chunkScreenSize.height;
+        int maxChunkY = Math.min((cachedRegion.bottom() - 1) / chunkScreenSize.height,
+                chunkRows - 1);
+
+        // Evict chunks out of range with margin, collect keys first as entries move while
+        // removing
+        int evictedCount = 0;
+        for (int slot = 0; slot < chunks.capacity(); ++slot) {
+            if (!chunks.isOccupied(slot)) {
+                continue;
+            }
+
+            long key = chunks.keyAt(slot);
+            int chunkX = CoordKey.unpackX(key), chunkY = CoordKey.unpackY(key);
+            if (chunkX < minChunkX - EVICTION_MARGIN_CHUNKS ||
+                    chunkX > maxChunkX + EVICTION_MARGIN_CHUNKS ||
+                    chunkY < minChunkY - EVICTION_MARGIN_CHUNKS ||
+                    chunkY > maxChunkY + EVICTION_MARGIN_CHUNKS) {
+                if (evictedCount == evictedKeys.length) {
+                    evictedKeys = Arrays.copyOf(evictedKeys, evictedCount * 2);
+                }
+                evictedKeys[evictedCount++] = key;
+            }
+        }
+        for (int i = 0; i < evictedCount; ++i) {
+            Sprite sprite = chunks.remove(evictedKeys[i]);
+            sprite.hide();
+            sprite.commit();
+            pooledChunks.put(evictedKeys[i], sprite);
+        }
+        while (pooledChunks.size() > MAX_POOLED_CHUNKS) {
+            releaseFarthestPooledChunk(minChunkX, maxChunkX, minChunkY, maxChunkY);
+        }
+
+        // Load new chunks
+        for (int chunkY = minChunkY; chunkY <= maxChunkY; ++chunkY) {
+            for (int chunkX = minChunkX; chunkX <= maxChunkX; ++chunkX) {
+                if (chunks.get(chunkX, chunkY) != null) {
+                    continue;
+                }
+
+                Sprite pooledSprite = pooledChunks.remove(CoordKey.pack(chunkX, chunkY));
+                if (pooledSprite != null) {
+                    pooledSprite.setVisible(visible);
+                    chunks.put(chunkX, chunkY, pooledSprite);
+                    continue;
+                }
+
+                spriteBuildCount++;
+                Sprite sprite = new Sprite.Builder(getChunkName(CoordKey.pack(chunkX, chunkY)))
+                        .data(chunkImages[chunkY * chunkColumns + chunkX])
+                        .position(new Point(
+                                chunkX * chunkScreenSize.width + chunkScreenSize.width / 2,
+                                chunkY * chunkScreenSize.height + chunkScreenSize.height / 2))
+                        .size(new Size(chunkScreenSize))
+                        .smooth(false)
+                        .layer(layer).visible(visible).build();
+                chunks.put(chunkX, chunkY, sprite);
+            }
+        }
+    }
+
+    /**
+     * Release pooled chunk farthest from chunk range
+     * @param minChunkX
+     * @param maxChunkX
+     * @param minChunkY
+     * @param maxChunkY
+     */
+    private void releaseFarthestPooledChunk(int minChunkX, int maxChunkX,
+                                            int minChunkY, int maxChunkY) {
+        long farthestKey = 0;
+        int farthestDistance = -1;
+        for (int slot = 0; slot < pooledChunks.capacity(); ++slot) {
+            if (!pooledChunks.isOccupied(slot)) {
+                continue;
+            }
+
+            long key = pooledChunks.keyAt(slot);
+            int chunkX = CoordKey.unpackX(key), chunkY = CoordKey.unpackY(key);
+            int distance = Math.max(Math.max(minChunkX - chunkX, chunkX - maxChunkX),
+                    Math.max(minChunkY - chunkY, chunkY - maxChunkY));
+            if (distance > farthestDistance) {
+                farthestKey = key;
+                farthestDistance = distance;
+            }
+        }
+
+        pooledChunks.remove(farthestKey).close();
+        Engine2D.GetInstance().getResourceManager().releaseTexture(getChunkName(farthestKey));
+    }
+
+    /**
+     * Number of chunk sprites built so far. It stays same in steady state once every chunk
+     * on the route is loaded or pooled.
+     * @return
+     */
+    int getSpriteBuildCount() {
+        return spriteBuildCount;
+    }
+
+    /**
+     * Draw tiles of chunk from atlas and encode it as png
+     * @param chunkX
+     * @param chunkY
+     * @return
+     */
+    private byte[] bakeChunk(int chunkX, int chunkY) {
+        chunkBitmap.eraseColor(0);
+
+        int width = data.getWidth();
+        int minX = chunkX * CHUNK_TILES, maxX = Math.min(minX + CHUNK_TILES, width);
+        int minY = chunkY * CHUNK_TILES, maxY = Math.min(minY + CHUNK_TILES, data.getHeight());
+        for (int y = minY; y < maxY; ++y) {
+            for (int x = minX; x < maxX; ++x) {
+                int gridIndex = textureGrids[y * width + x];
+                int srcLeft = (gridIndex % gridColumns) * atlasTileWidth;
+                int srcTop = (gridIndex / gridColumns) * atlasTileHeight;
+                int dstLeft = (x - minX) * atlasTileWidth;
+                int dstTop = (y - minY) * atlasTileHeight;
+                srcRect.set(srcLeft, srcTop, srcLeft + atlasTileWidth, srcTop + atlasTileHeight);
+                dstRect.set(dstLeft, dstTop, dstLeft + atlasTileWidth, dstTop + atlasTileHeight);
+                chunkCanvas.drawBitmap(atlas, srcRect, dstRect, null);
+            }
+        }
+
+        pngStream.reset();
+        chunkBitmap.compress(Bitmap.CompressFormat.PNG, 100, pngStream);
+        return pngStream.toByteArray();
+    }
+
+    /**
+     * Texture name of chunk, it should be unique among tracks
+     * @param key
+     * @return
+     */
+    private String getChunkName(long key) {
+        return "track_chunk:" + data.getMapAsset() + ":" + CoordKey.unpackX(key) + ":" +
+                CoordKey.unpackY(key);
+    }
+
+    /**
+     *
+     */
+    void commit() {
+        for (int slot = 0; slot < chunks.capacity(); ++slot) {
+            if (chunks.isOccupied(slot)) {
+                chunks.valueAt(slot).commit();
+            }
+        }
+    }
+
+    /**
+     *
+     */
+    void show() {
+        for (int slot = 0; slot < chunks.capacity(); ++slot) {
+            if (chunks.isOccupied(slot)) {
+                chunks.valueAt(slot).show();
+            }
+        }
+    }
+
+    /**
+     *
+     */
+    void hide() {
+        for (int slot = 0; slot < chunks.capacity(); ++slot) {
+            if (chunks.isOccupied(slot)) {
+                chunks.valueAt(slot).hide();
+            }
+        }
+    }
+
+    private static final String ATLAS_ASSET = "map_tile.png";
+    private static final int EVICTION_MARGIN_CHUNKS = 1;
+    private static final int MAX_POOLED_CHUNKS = 32;
+    private static Bitmap atlas;
+
+    private TrackData data;
+    private byte[] textureGrids;
+    private int gridColumns;
+    private int layer;
+    private CoordMap<Sprite> chunks;
+    private CoordMap<Sprite> pooledChunks;
+    private int spriteBuildCount = 0;
+    private Size chunkScreenSize;
+    private int chunkColumns, chunkRows;
+    private byte[][] chunkImages;
+    private int atlasTileWidth, atlasTileHeight;
+    private Bitmap chunkBitmap;
+    private Canvas chunkCanvas;
+    private ByteArrayOutputStream pngStream;
+    private android.graphics.Rect srcRect = new android.graphics.Rect();
+    private android.graphics.Rect dstRect = new android.graphics.Rect();
+    private long[] evictedKeys = new long[16];
+}
@@ -1,15 +1,17 @@
 package com.lifejourney.racingfever;
 
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
 import android.util.Log;
 
 import com.lifejourney.engine2d.Engine2D;
 import com.lifejourney.engine2d.InfoBitmap;
 import com.lifejourney.engine2d.Point;
-import com.lifejourney.engine2d.Rect;
-import com.lifejourney.engine2d.ResourceManager;
 import com.lifejourney.engine2d.Size;
 
+import java.io.InputStream;
 import java.util.ArrayList;
+import java.util.zip.CRC32;
 
 class TrackData {
 
@@ -45,32 +47,80 @@ class TrackData {
      * @param mapAsset
      */
     TrackData(String mapAsset) {
+        // Load map data from bitmap (grayscale png)
+        this(mapAsset, Engine2D.GetInstance().getResourceManager()
+                .loadGrayscaleBitmap(mapAsset).get2DByteArray());
+    }
+
+    /**
+     * Load map data from the stream of grayscale png. It doesn't require Engine2D to be
+     * initialized, so it can be used for headless simulation.
+     * @param mapAsset
+     * @param stream
+     */
+    TrackData(String mapAsset, InputStream stream) {
+        this(mapAsset, decodeGrid(mapAsset, stream));
+    }
+
+    /**
+     *
+     * @param mapAsset
+     * @param grid
+     */
+    TrackData(String mapAsset, byte[][] grid) {
         this.mapAsset = mapAsset;
+        width = (grid.length > 0)? grid[0].length : 0;
+        height = grid.length;
+        size = new Size(width, height);
 
-        // Load map data from bitmap (grayscale png)
-        ResourceManager resourceManager = Engine2D.GetInstance().getResourceManager();
-        InfoBitmap bitmap = resourceManager.loadGrayscaleBitmap(mapAsset);
-        grid = bitmap.get2DByteArray();
-        size = new Size(bitmap.getWidth(), bitmap.getHeight());
+        // Checksum of map to validate data derived from it
+        CRC32 crc = new CRC32();
+        for (byte[] row : grid) {
+            crc.update(row);
+        }
+        checksum = crc.getValue();
 
-        // Retrieving starting points & end points
+        // Pack tile types into flat grid & retrieve starting points & end points
+        tiles = new byte[width * height];
         startPoints = new ArrayList<>();
         endPoints = new ArrayList<>();
         finishPoints = new ArrayList<>();
-        for (int y = 0; y < size.height; ++y) {
-            for (int x = 0; x < size.width; ++x) {
-                if (grid[y][x] == TileType.START.code()) {
+        for (int y = 0; y < height; ++y) {
+            for (int x = 0; x < width; ++x) {
+                TileType type = findTileType(grid[y][x]);
+                int flags = 0;
+                if (type.movable()) {
+                    flags |= FLAG_MOVABLE;
+                    if (type != TileType.FINISH) {
+                        flags |= FLAG_SEARCHABLE;
+                    }
+                }
+                tiles[y * width + x] = (byte) (type.ordinal() | flags);
+
+                if (type == TileType.START) {
                     startPoints.add(new Point(x, y));
                 }
-                else if (grid[y][x] == TileType.END.code()) {
+                else if (type == TileType.END) {
                     endPoints.add(new Point(x, y));
                 }
-                else if (grid[y][x] == TileType.FINISH.code()) {
+                else if (type == TileType.FINISH) {
                     finishPoints.add(new Point(x, y));
                 }
             }
         }
 
+        // Mark boundary tiles once movable flags of all tiles are known
+        for (int y = 0; y < height; ++y) {
+            for (int x = 0; x < width; ++x) {
+                if (!isMovable(x, y) && (isMovable(x - 1, y) || isMovable(x + 1, y) ||
+                        isMovable(x, y - 1) || isMovable(x, y + 1))) {
+                    tiles[y * width + x] |= FLAG_BOUNDARY;
+                }
+            }
+        }
+
+        buildWallDistance();
+
         if (startPoints.size() == 0) {
             throw new IllegalArgumentException("There's no starting point in this map!!!");
         }
@@ -79,19 +129,88 @@ class TrackData {
         }
     }
 
+    /**
+     * Build chessboard distance from each tile to the nearest non-movable tile with two pass
+     * chamfer transform. Outside of map is regarded as non-movable.
+     */
+    private void buildWallDistance() {
+        wallDistance = new short[width * height];
+
+        // Forward pass from top-left
+        for (int y = 0; y < height; ++y) {
+            for (int x = 0; x < width; ++x) {
+                int index = y * width + x;
+                if ((tiles[index] & FLAG_MOVABLE) == 0) {
+                    continue;
+                }
+
+                int distance = Math.min(Math.min(x + 1, y + 1), Math.min(width - x, height - y));
+                if (x > 0) {
+                    distance = Math.min(distance, wallDistance[index - 1] + 1);
+                }
+                if (y > 0) {
+                    distance = Math.min(distance, wallDistance[index - width] + 1);
+                    if (x > 0) {
+                        distance = Math.min(distance, wallDistance[index - width - 1] + 1);
+                    }
+                    if (x < width - 1) {
+                        distance = Math.min(distance, wallDistance[index - width + 1] + 1);
+                    }
+                }
+                wallDistance[index] = (short) Math.min(distance, Short.MAX_VALUE);
+            }
+        }
+
+        // Backward pass from bottom-right
+        for (int y = height - 1; y >= 0; --y) {
+            for (int x = width - 1; x >= 0; --x) {
+                int index = y * width + x;
+                int distance = wallDistance[index];
+                if (distance == 0) {
+                    continue;
+                }
+
+                if (x < width - 1) {
+                    distance = Math.min(distance, wallDistance[index + 1] + 1);
+                }
+                if (y < height - 1) {
+                    distance = Math.min(distance, wallDistance[index + width] + 1);
+                    if (x < width - 1) {
+                        distance = Math.min(distance, wallDistance[index + width + 1] + 1);
+                    }
+                    if (x > 0) {
+                        distance = Math.min(distance, wallDistance[index + width - 1] + 1);
+                    }
+                }
+                wallDistance[index] = (short) distance;
+            }
+        }
+    }
+
     /**
      *
-     * @param pt
+     * @param mapAsset
+     * @param stream
      * @return
      */
-    TileType getTileType(Point pt) {
-        Rect trackRegion = new Rect(new Point(), getSize());
-        if (!trackRegion.includes(pt)) {
-            return TileType.UNKNOWN;
+    private static byte[][] decodeGrid(String mapAsset, InputStream stream) {
+        Bitmap bitmap = BitmapFactory.decodeStream(stream);
+        if (bitmap == null) {
+            throw new IllegalArgumentException("Failed to decode map: " + mapAsset);
         }
 
-        byte code = grid[pt.y][pt.x];
-        for (TileType type : TileType.values()) {
+        byte[][] grid = new InfoBitmap(bitmap).get2DByteArray();
+        bitmap.recycle();
+        return grid;
+    }
+
+    /**
+     *
+     * @param code
+     * @return
+     */
+    private static TileType findTileType(byte code) {
+        for (TileType type : TILE_TYPES) {
             if (type.code() == code) {
                 return type;
             }
@@ -101,18 +220,66 @@ class TrackData {
         return TileType.UNKNOWN;
     }
 
+    /**
+     *
+     * @param x
+     * @param y
+     * @return
+     */
+    private boolean includes(int x, int y) {
+        return x >= 0 && y >= 0 && x < width && y < height;
+    }
+
+    /**
+     *
+     * @param x
+     * @param y
+     * @return
+     */
+    TileType getTileType(int x, int y) {
+        if (!includes(x, y)) {
+            return TileType.UNKNOWN;
+        }
+
+        return TILE_TYPES[tiles[y * width + x] & TYPE_MASK];
+    }
+
+    /**
+     *
+     * @param pt
+     * @return
+     */
+    TileType getTileType(Point pt) {
+        return getTileType(pt.x, pt.y);
+    }
+
+    /**
+     *
+     * @param x
+     * @param y
+     * @return
+     */
+    boolean isMovable(int x, int y) {
+        return includes(x, y) && (tiles[y * width + x] & FLAG_MOVABLE) != 0;
+    }
+
     /**
      *
      * @param pt
      * @return
      */
     boolean isMovable(Point pt) {
-        Rect trackRegion = new Rect(new Point(), getSize());
-        if (!trackRegion.includes(pt)) {
-            return false;
-        }
+        return isMovable(pt.x, pt.y);
+    }
 
-        return getTileType(pt).movable();
+    /**
+     *
+     * @param x
+     * @param y
+     * @return
+     */
+    boolean isSearchable(int x, int y) {
+        return includes(x, y) && (tiles[y * width + x] & FLAG_SEARCHABLE) != 0;
     }
 
     /**
@@ -121,13 +288,48 @@ class TrackData {
      * @return
      */
     boolean isSearchable(Point pt) {
-        Rect trackRegion = new Rect(new Point(), getSize());
-        if (!trackRegion.includes(pt)) {
-            return false;
+        return isSearchable(pt.x, pt.y);
+    }
+
+    /**
+     * Boundary tile is not movable but it has movable tile in 4-neighbors
+     * @param x
+     * @param y
+     * @return
+     */
+    boolean isBoundary(int x, int y) {
+        return includes(x, y) && (tiles[y * width + x] & FLAG_BOUNDARY) != 0;
+    }
+
+    /**
+     * Chessboard distance in tiles to the nearest non-movable tile (or outside of map).
+     * All tiles within (distance - 1) tiles around are movable. It's 0 for non-movable tile.
+     * @param x
+     * @param y
+     * @return
+     */
+    int getWallDistance(int x, int y) {
+        if (!includes(x, y)) {
+            return 0;
         }
 
-        TileType type = getTileType(pt);
-        return (type != TileType.FINISH && type.movable());
+        return wallDistance[y * width + x];
+    }
+
+    /**
+     *
+     * @return
+     */
+    int getWidth() {
+        return width;
+    }
+
+    /**
+     *
+     * @return
+     */
+    int getHeight() {
+        return height;
     }
 
     /**
@@ -201,8 +403,25 @@ class TrackData {
         return mapAsset;
     }
 
+    /**
+     * CRC32 of map tiles
+     * @return
+     */
+    long getChecksum() {
+        return checksum;
+    }
+
+    private static final TileType[] TILE_TYPES = TileType.values();
+    private static final int TYPE_MASK = 0x0f;
+    private static final int FLAG_MOVABLE = 0x10;
+    private static final int FLAG_SEARCHABLE = 0x20;
+    private static final int FLAG_BOUNDARY = 0x40;
+
     private String mapAsset;
-    private byte[][] grid;
+    private long checksum;
+    private byte[] tiles;
+    private short[] wallDistance;
+    private int width, height;
     private Size size;
     private ArrayList<Point> startPoints;
     private ArrayList<Point> endPoints;
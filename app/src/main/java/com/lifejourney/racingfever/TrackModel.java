@@ -0,0 +1,704 @@
+package com.lifejourney.racingfever;
+
+import android.util.Log;
+
+import com.lifejourney.engine2d.Point;
+import com.lifejourney.engine2d.PointF;
+import com.lifejourney.engine2d.RectF;
+import com.lifejourney.engine2d.Size;
+import com.lifejourney.engine2d.Vector2D;
+import com.lifejourney.engine2d.Waypoint;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.EnumMap;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.RecursiveTask;
+
+/**
+ * Immutable part of track, which is map data, lanes searched on it and geometry queries.
+ * Everything is built in constructor and never modified after, so one instance can be shared
+ * by any number of worlds and queried from any thread. Waypoints searched for lanes are
+ * mutable, so they are only used while building and lanes are kept and handed out as
+ * PackedLane, which can't be modified.
+ *
+ * Per-world state like tile sprites is kept by TrackView, and Track binds the two.
+ */
+class TrackModel {
+
+    private static final String LOG_TAG = "TrackModel";
+
+    // Shared by all models for building lanes
+    private static final ForkJoinPool LANE_POOL = new ForkJoinPool();
+
+    /**
+     * Search lanes of track, use cached one if it's available
+     * @param data
+     * @param scale
+     */
+    TrackModel(TrackData data, float scale) {
+        this.data = data;
+        this.tileSize = new Size((int) (TILE_WIDTH*scale), (int) (TILE_HEIGHT*scale));
+
+        Map<Track.LaneSelection, ArrayList<Waypoint>> lanes;
+        LaneCache laneCache = new LaneCache(data, scale);
+        lanes = laneCache.load();
+        if (lanes == null) {
+            lanes = searchLanes();
+            laneCache.save(lanes);
+        }
+        this.packedLanes = packLanes(lanes, tileSize);
+    }
+
+    /**
+     * Build lanes around the optimal lane given instead of searching it. Lane cache is not
+     * used.
+     * @param data
+     * @param scale
+     * @param optimalLane
+     */
+    TrackModel(TrackData data, float scale, ArrayList<Waypoint> optimalLane) {
+        this.data = data;
+        this.tileSize = new Size((int) (TILE_WIDTH*scale), (int) (TILE_HEIGHT*scale));
+        this.packedLanes = packLanes(buildLanes(optimalLane), tileSize);
+    }
+
+    /**
+     *
+     * @param lanes
+     * @param tileSize
+     * @return lanes packed in arrays
+     */
+    private static Map<Track.LaneSelection, PackedLane> packLanes(
+            Map<Track.LaneSelection, ArrayList<Waypoint>> lanes, Size tileSize) {
+        EnumMap<Track.LaneSelection, PackedLane> packedLanes =
+                new EnumMap<>(Track.LaneSelection.class);
+        for (Map.Entry<Track.LaneSelection, ArrayList<Waypoint>> entry : lanes.entrySet()) {
+            packedLanes.put(entry.getKey(), new PackedLane(entry.getValue(), tileSize));
+        }
+        return Collections.unmodifiableMap(packedLanes);
+    }
+
+    /**
+     *
+     */
+    private Map<Track.LaneSelection, ArrayList<Waypoint>> searchLanes() {
+        // Find optimal lane
+        return buildLanes(new TrackPathFinder(data).findOptimalPath());
+    }
+
+    /**
+     *
+     * @param optimalLane
+     * @return
+     */
+    private Map<Track.LaneSelection, ArrayList<Waypoint>> buildLanes(
+            ArrayList<Waypoint> optimalLane) {
+        Map<Track.LaneSelection, ArrayList<Waypoint>> lanes = new HashMap<>();
+        lanes.put(Track.LaneSelection.INVALID_LANE, optimalLane);
+
+        // Find left and right boundary of road at each waypoint in parallel
+        int waypointCount = optimalLane.size();
+        Point[] l2Points = new Point[waypointCount];
+        Point[] r2Points = new Point[waypointCount];
+        Point[] l1Points = new Point[waypointCount];
+        Point[] r1Points = new Point[waypointCount];
+        Point[] middlePoints = new Point[waypointCount];
+        LANE_POOL.invoke(new BoundarySearchTask(optimalLane, 0, waypointCount,
+                l2Points, r2Points, l1Points, r1Points, middlePoints));
+
+        // Link and cost each lane independently
+        final LaneBuildTask l2Task = new LaneBuildTask(l2Points);
+        final LaneBuildTask r2Task = new LaneBuildTask(r2Points);
+        final LaneBuildTask l1Task = new LaneBuildTask(l1Points);
+        final LaneBuildTask r1Task = new LaneBuildTask(r1Points);
+        final LaneBuildTask middleTask = new LaneBuildTask(middlePoints);
+        LANE_POOL.invoke(new RecursiveAction() {
+            @Override
+            protected void compute() {
+                invokeAll(l2Task, r2Task, l1Task, r1Task, middleTask);
+            }
+        });
+
+        lanes.put(Track.LaneSelection.L1_LANE, l1Task.getRawResult());
+        lanes.put(Track.LaneSelection.R1_LANE, r1Task.getRawResult());
+        lanes.put(Track.LaneSelection.L2_LANE, l2Task.getRawResult());
+        lanes.put(Track.LaneSelection.R2_LANE, r2Task.getRawResult());
+        lanes.put(Track.LaneSelection.MIDDLE_LANE, middleTask.getRawResult());
+        return lanes;
+    }
+
+    /**
+     * Find lane points crossing the road at waypoints of optimal lane in [from, to)
+     */
+    private class BoundarySearchTask extends RecursiveAction {
+
+        private static final int THRESHOLD = 16;
+
+        BoundarySearchTask(ArrayList<Waypoint> optimalLane, int from, int to,
+                           Point[] l2Points, Point[] r2Points, Point[] l1Points,
+                           Point[] r1Points, Point[] middlePoints) {
+            this.optimalLane = optimalLane;
+            this.from = from;
+            this.to = to;
+            this.l2Points = l2Points;
+            this.r2Points = r2Points;
+            this.l1Points = l1Points;
+            this.r1Points = r1Points;
+            this.middlePoints = middlePoints;
+        }
+
+        @Override
+        protected void compute() {
+            if (to - from > THRESHOLD) {
+                int mid = (from + to) >>> 1;
+                invokeAll(
+                        new BoundarySearchTask(optimalLane, from, mid,
+                                l2Points, r2Points, l1Points, r1Points, middlePoints),
+                        new BoundarySearchTask(optimalLane, mid, to,
+                                l2Points, r2Points, l1Points, r1Points, middlePoints));
+                return;
+            }
+
+            for (int index = from; index < to; ++index) {
+                int prevIndex = (index == 0)? optimalLane.size() - 1 : index - 1;
+
+                Point currentWaypointPt = optimalLane.get(index).getPosition();
+                Point prevWaypointPt = optimalLane.get(prevIndex).getPosition();
+
+                Vector2D delta = currentWaypointPt.vectorize().subtract(prevWaypointPt.vectorize());
+                Vector2D crossRoad = delta.perpendicular();
+
+                // Boundaries of road
+                Point l2 = getBoundaryRoadCoordinate(currentWaypointPt, crossRoad.direction());
+                Point r2 = getBoundaryRoadCoordinate(currentWaypointPt, crossRoad.multiply(-1)
+                        .direction());
+                Point middle = new Point(l2).add(r2).divide(2.0f);
+
+                l2Points[index] = l2;
+                r2Points[index] = r2;
+                middlePoints[index] = middle;
+                l1Points[index] = new Point(l2).add(middle).divide(2.0f);
+                r1Points[index] = new Point(r2).add(middle).divide(2.0f);
+            }
+        }
+
+        private ArrayList<Waypoint> optimalLane;
+        private int from, to;
+        private Point[] l2Points, r2Points, l1Points, r1Points, middlePoints;
+    }
+
+    /**
+     * Make circularly linked lane from points and calculate its cost to search
+     */
+    private class LaneBuildTask extends RecursiveTask<ArrayList<Waypoint>> {
+
+        LaneBuildTask(Point[] points) {
+            this.points = points;
+        }
+
+        @Override
+        protected ArrayList<Waypoint> compute() {
+            ArrayList<Waypoint> lane = new ArrayList<>(points.length);
+            CoordSet visited = new CoordSet(points.length);
+            Waypoint prevWaypoint = null;
+            for (Point pt : points) {
+                Waypoint waypoint = new Waypoint(pt, null, 0.0f);
+
+                // Waypoint is invalid if there's already one on the same tile
+                waypoint.setValid(visited.add(pt.x, pt.y));
+                waypoint.setPrev(prevWaypoint);
+                if (prevWaypoint != null) {
+                    prevWaypoint.setNext(waypoint);
+                }
+                prevWaypoint = waypoint;
+                lane.add(waypoint);
+            }
+            if (lane.size() > 0) {
+                assert prevWaypoint != null;
+                prevWaypoint.setNext(lane.get(0));
+                lane.get(0).setPrev(prevWaypoint);
+                calcCostToSearch(lane);
+            }
+
+            return lane;
+        }
+
+        private Point[] points;
+    }
+
+    /**
+     *
+     * @param lane
+     */
+    private void calcCostToSearch(ArrayList<Waypoint> lane) {
+        for (Waypoint waypoint: lane) {
+            Waypoint prevWaypoint = waypoint.getPrev();
+            Waypoint nextWaypoint = waypoint.getNext();
+
+            Point prevPt = prevWaypoint.getPosition();
+            Point curPt = waypoint.getPosition();
+            Point nextPt = nextWaypoint.getPosition();
+
+            Vector2D prevDirection = curPt.vectorize().subtract(prevPt.vectorize());
+            Vector2D nextDirection = nextPt.vectorize().subtract(curPt.vectorize());
+            float angle = prevDirection.angle(nextDirection);
+
+            if (angle > 20.0f) {
+                waypoint.setCostToSearch(2);
+            }
+            else if (angle > 40.0f) {
+                waypoint.setCostToSearch(3);
+            }
+        }
+    }
+
+    /**
+     *
+     * @return
+     */
+    TrackData getData() {
+        return data;
+    }
+
+    /**
+     *
+     * @param laneSelection
+     * @return
+     */
+    PackedLane getPackedLane(Track.LaneSelection laneSelection) {
+        return packedLanes.get(laneSelection);
+    }
+
+    /**
+     *
+     * @param pt
+     * @return
+     */
+    RectF getScreenRegionfromTrackCoord(Point pt) {
+        return new RectF(pt.x*tileSize.width, pt.y*tileSize.height,
+                tileSize.width, tileSize.height);
+    }
+
+    /**
+     *
+     * @param pt
+     * @return
+     */
+    Point getTrackCoordFromScreenCoord(PointF pt) {
+        return new Point(pt).divide(new Point(tileSize.width, tileSize.height));
+    }
+
+    /**
+     * Visitor for tiles on raytraced line
+     */
+    interface TileVisitor {
+        /**
+         *
+         * @param x
+         * @param y
+         * @return false to stop raytracing at this tile
+         */
+        boolean visit(int x, int y);
+    }
+
+    /**
+     * Raytrace from start toward direction without allocation
+     * @param startX
+     * @param startY
+     * @param direction
+     * @param maxDistance
+     * @param visitor
+     * @return packed coordinate of the tile where visitor stopped, NO_TILE if it didn't stop
+     */
+    long raytraceToward(float startX, float startY, float direction, float maxDistance,
+                        TileVisitor visitor) {
+        // Same as new Vector2D(direction).multiply(maxDistance)
+        float radian = (float) Math.toRadians(direction);
+        float endX = startX + (float) Math.sin(radian) * maxDistance;
+        float endY = startY - (float) Math.cos(radian) * maxDistance;
+
+        return raytrace(startX, startY, endX, endY, visitor);
+    }
+
+    /**
+     * Raytrace tiles from start to end in screen coordinate without allocation.
+     * @param startX
+     * @param startY
+     * @param endX
+     * @param endY
+     * @param visitor
+     * @return packed coordinate of the tile where visitor stopped, NO_TILE if it didn't stop
+     */
+    long raytrace(float startX, float startY, float endX, float endY, TileVisitor visitor) {
+        float startpointX = startX / tileSize.width, startpointY = startY / tileSize.height;
+        float endpointX = endX / tileSize.width, endpointY = endY / tileSize.height;
+        int trackWidth = data.getWidth(), trackHeight = data.getHeight();
+
+        // Raytracing code
+        // http://playtechs.blogspot.com/2007/03/raytracing-on-grid.html
+        float dx = Math.abs(endpointX - startpointX);
+        float dy = Math.abs(endpointY - startpointY);
+
+        int x = (int)(Math.floor(startpointX));
+        int y = (int)(Math.floor(startpointY));
+
+        float dt_dx = 1.0f / dx;
+        float dt_dy = 1.0f / dy;
+
+        int n = 1;
+        int x_inc, y_inc;
+        float t_next_vertical, t_next_horizontal;
+
+        if (dx == 0) {
+            x_inc = 0;
+            t_next_horizontal = dt_dx; // infinity
+        }
+        else if (endpointX > startpointX) {
+            x_inc = 1;
+            n += (int)(Math.floor(endpointX)) - x;
+            t_next_horizontal = (float) (Math.floor(startpointX) + 1 - startpointX) * dt_dx;
+        }
+        else {
+            x_inc = -1;
+            n += x - (int)(Math.floor(endpointX));
+            t_next_horizontal = (float) (startpointX - Math.floor(startpointX)) * dt_dx;
+        }
+
+        if (dy == 0) {
+            y_inc = 0;
+            t_next_vertical = dt_dy; // infinity
+        }
+        else if (endpointY > startpointY) {
+            y_inc = 1;
+            n += (int) (Math.floor(endpointY)) - y;
+            t_next_vertical = (float) (Math.floor(startpointY) + 1 - startpointY) * dt_dy;
+        }
+        else {
+            y_inc = -1;
+            n += y - (int)(Math.floor(endpointY));
+            t_next_vertical = (float) (startpointY - Math.floor(startpointY)) * dt_dy;
+        }
+
+        for (; n > 0; --n) {
+            // Tracing doesn't go further once it leaves the track
+            if (x < 0 || y < 0 || x >= trackWidth || y >= trackHeight) {
+                break;
+            }
+
+            if (!visitor.visit(x, y)) {
+                return CoordKey.pack(x, y);
+            }
+
+            if (t_next_vertical < t_next_horizontal) {
+                y += y_inc;
+                t_next_vertical += dt_dy;
+            }
+            else {
+                x += x_inc;
+                t_next_horizontal += dt_dx;
+            }
+        }
+
+        return NO_TILE;
+    }
+
+    /**
+     *
+     * @return
+     */
+    Size getTileSize() {
+        return tileSize;
+    }
+
+    /**
+     *
+     * @return size of track in screen coordinate
+     */
+    Size getSize() {
+        return new Size(data.getSize()).multiply(tileSize.width, tileSize.height);
+    }
+
+    /**
+     *
+     * @param pt
+     * @param direction
+     * @return
+     */
+    private Point getBoundaryRoadCoordinate(Point pt, float direction) {
+        if (!data.isMovable(pt)) {
+            return null;
+        }
+
+        // Remember the last movable tile before road block
+        final Point lastMovablePt = new Point(pt);
+        PointF screenPt = getScreenRegionfromTrackCoord(pt).center();
+        raytraceToward(screenPt.x, screenPt.y, direction, tileSize.width*10,
+                new TileVisitor() {
+                    @Override
+                    public boolean visit(int x, int y) {
+                        if (!data.isMovable(x, y)) {
+                            return false;
+                        }
+                        lastMovablePt.setTo(x, y);
+                        return true;
+                    }
+                });
+        return lastMovablePt;
+    }
+
+    /**
+     *
+     * @param start
+     * @param end
+     * @return
+     */
+    float getNearestDistanceToRoadBlock(PointF start, PointF end) {
+        return getNearestDistanceToRoadBlock(start.x, start.y, end.x, end.y);
+    }
+
+    /**
+     *
+     * @param startX
+     * @param startY
+     * @param endX
+     * @param endY
+     * @return
+     */
+    float getNearestDistanceToRoadBlock(float startX, float startY, float endX, float endY) {
+        if (!isMovableScreenCoord(startX, startY)) {
+            return 0.0f;
+        }
+
+        // Nothing can block the ray if it doesn't reach out of clearance
+        float dx = startX - endX;
+        float dy = startY - endY;
+        float distance = (float) Math.sqrt((float) ((double) dx * dx + (double) dy * dy));
+        if (distance < getClearanceToRoadBlock(startX, startY)) {
+            return Float.MAX_VALUE;
+        }
+
+        long blockedTile = raytrace(startX, startY, endX, endY, movableTileVisitor);
+        return getDistanceToTileCenter(startX, startY, blockedTile);
+    }
+
+    /**
+     *
+     * @param pt
+     * @param direction
+     * @param maxDistance
+     * @return
+     */
+    float getNearestDistanceToRoadBlock(PointF pt, float direction, float maxDistance) {
+        if (!isMovableScreenCoord(pt.x, pt.y)) {
+            return 0.0f;
+        }
+
+        if (maxDistance < getClearanceToRoadBlock(pt)) {
+            return Float.MAX_VALUE;
+        }
+
+        long blockedTile = raytraceToward(pt.x, pt.y, direction, maxDistance,
+                movableTileVisitor);
+        return getDistanceToTileCenter(pt.x, pt.y, blockedTile);
+    }
+
+    /**
+     * Distance from pt in which there's no road block in any direction. It's looked up from
+     * precomputed wall distance of track data, so it can be used to skip raytracing.
+     * @param pt
+     * @return
+     */
+    float getClearanceToRoadBlock(PointF pt) {
+        return getClearanceToRoadBlock(pt.x, pt.y);
+    }
+
+    /**
+     *
+     * @param x
+     * @param y
+     * @return
+     */
+    float getClearanceToRoadBlock(float x, float y) {
+        int wallDistance = data.getWallDistance((int) x / tileSize.width,
+                (int) y / tileSize.height);
+        if (wallDistance == 0) {
+            return 0.0f;
+        }
+
+        // Every tile closer than wallDistance is movable, so the gap to the nearest
+        // non-movable tile is at least (wallDistance - 1) tiles
+        return (wallDistance - 1) * Math.min(tileSize.width, tileSize.height);
+    }
+
+    /**
+     *
+     * @param x
+     * @param y
+     * @return
+     */
+    private boolean isMovableScreenCoord(float x, float y) {
+        return data.isMovable((int) x / tileSize.width, (int) y / tileSize.height);
+    }
+
+    /**
+     *
+     * @param x
+     * @param y
+     * @param tile packed tile coordinate
+     * @return distance to the center of tile, Float.MAX_VALUE if there's no tile
+     */
+    private float getDistanceToTileCenter(float x, float y, long tile) {
+        if (tile == NO_TILE) {
+            return Float.MAX_VALUE;
+        }
+
+        float dx = CoordKey.unpackX(tile) * tileSize.width + tileSize.width / 2.0f - x;
+        float dy = CoordKey.unpackY(tile) * tileSize.height + tileSize.height / 2.0f - y;
+        return (float) Math.sqrt(dx * dx + dy * dy);
+    }
+
+    Track.LaneSelection getNearestLaneFromCurrentPosition(int waypointIndex, PointF pt) {
+        float nearestDistance = Float.MAX_VALUE;
+        Track.LaneSelection nearestLane = null;
+        for (int i = 1; i < Track.LaneSelection.values().length; ++i) {
+            float distance = getPackedLane(Track.LaneSelection.values()[i])
+                    .getDistanceToCenter(waypointIndex, pt.x, pt.y);
+            if (distance < nearestDistance) {
+                nearestDistance = distance;
+                nearestLane = Track.LaneSelection.values()[i];
+            }
+        }
+
+        return nearestLane;
+    }
+
+    /**
+     *
+     * @param selection
+     * @param waypointIndex
+     * @return
+     */
+    RectF getWaypointRegion(Track.LaneSelection selection, int waypointIndex) {
+        return getWaypointRegion(selection, waypointIndex, new RectF());
+    }
+
+    /**
+     * Same as getWaypointRegion but fills region given instead of allocating new one
+     * @param selection
+     * @param waypointIndex
+     * @param region
+     * @return region
+     */
+    RectF getWaypointRegion(Track.LaneSelection selection, int waypointIndex, RectF region) {
+        PackedLane lane = getPackedLane(selection);
+        region.x = lane.getX(waypointIndex) * tileSize.width;
+        region.y = lane.getY(waypointIndex) * tileSize.height;
+        region.width = tileSize.width;
+        region.height = tileSize.height;
+        return region;
+    }
+
+    /**
+     *
+     * @param selection
+     * @param waypointIndex
+     * @return
+     */
+    float getWaypointCenterX(Track.LaneSelection selection, int waypointIndex) {
+        return getPackedLane(selection).getCenterX(waypointIndex);
+    }
+
+    /**
+     *
+     * @param selection
+     * @param waypointIndex
+     * @return
+     */
+    float getWaypointCenterY(Track.LaneSelection selection, int waypointIndex) {
+        return getPackedLane(selection).getCenterY(waypointIndex);
+    }
+
+    /**
+     *
+     * @param laneSelection
+     * @param waypointIndex1
+     * @param waypointIndex2
+     * @return
+     */
+    int getDistanceBetweenWaypointIndex(Track.LaneSelection laneSelection,
+                                        int waypointIndex1, int waypointIndex2) {
+        int totaNumberOfWaypoints = getPackedLane(laneSelection).size();
+
+        return Math.min(Math.abs(waypointIndex1-waypointIndex2),
+                Math.abs(totaNumberOfWaypoints-Math.max(waypointIndex1, waypointIndex2)+
+                        Math.min(waypointIndex1, waypointIndex2)));
+    }
+
+    /**
+     *
+     * @param laneSelection
+     * @param waypointIndex
+     * @return
+     */
+    int findNextValidWaypoint(Track.LaneSelection laneSelection, int waypointIndex) {
+        PackedLane lane = getPackedLane(laneSelection);
+        int waypointCount = lane.size();
+        for (int i = 1; i < waypointCount; ++i) {
+            int newWaypointIndex = (waypointIndex + i) % waypointCount;
+            if (lane.isValid(newWaypointIndex))
+                return newWaypointIndex;
+        }
+
+        // This shouldn't be happend
+        Log.e(LOG_TAG, "There's no valid waypoint found");
+        return -1;
+    }
+
+    /**
+     *
+     * @param laneSelection
+     * @param currentIndex
+     * @param maxSearchableScore
+     * @return
+     */
+    int getWaypointCountWhichCanBeSearched(Track.LaneSelection laneSelection,
+                                           int currentIndex,
+                                           int maxSearchableScore) {
+
+        if (maxSearchableScore == 0) {
+            maxSearchableScore = laneSelection.maxSearchRange();
+        }
+
+        PackedLane lane = getPackedLane(laneSelection);
+        int waypointCount = lane.size();
+        int i = 1, score = 1;
+        for (; i < maxSearchableScore && score < maxSearchableScore; ++i) {
+            int waypointIndex = (currentIndex + i) % waypointCount;
+            if (!lane.isValid(waypointIndex))
+                continue;
+            score += lane.getCostToSearch(waypointIndex);
+        }
+
+        return i;
+    }
+
+
+    static final long NO_TILE = -1L;
+
+    private final int TILE_WIDTH = 32, TILE_HEIGHT = 32;
+
+    private final TileVisitor movableTileVisitor = new TileVisitor() {
+        @Override
+        public boolean visit(int x, int y) {
+            return data.isMovable(x, y);
+        }
+    };
+
+    private final TrackData data;
+    private final Size tileSize;
+    private final Map<Track.LaneSelection, PackedLane> packedLanes;
+}
@@ -29,12 +29,12 @@ class TrackPathFinder extends PathFinder {
     protected boolean canMove(Point curPt, Point newPt) {
         // Special treat for diagonal move
         if (curPt.x != newPt.x && curPt.y != newPt.y) {
-            return trackData.isSearchable(new Point(curPt.x, newPt.y)) &&
-                    trackData.isSearchable(new Point(newPt.x, curPt.y)) &&
-                    trackData.isSearchable(newPt);
+            return trackData.isSearchable(curPt.x, newPt.y) &&
+                    trackData.isSearchable(newPt.x, curPt.y) &&
+                    trackData.isSearchable(newPt.x, newPt.y);
         }
         else {
-            return trackData.isSearchable(newPt);
+            return trackData.isSearchable(newPt.x, newPt.y);
         }
     }
 
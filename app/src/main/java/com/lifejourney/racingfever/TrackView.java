@@ -11,18 +11,21 @@ import com.lifejourney.engine2d.Vector2D;
 import com.lifejourney.engine2d.View;
 
 import java.util.ArrayList;
-import java.util.HashMap;
-import java.util.Iterator;
-import java.util.Map;
 
+/**
+ * Tile sprites of a track in a world. Geometry is delegated to TrackModel, and nothing is
+ * allocated for rendering until it's shown, so a headless world costs almost nothing on top
+ * of the shared model.
+ */
 class TrackView implements View {
 
     private String LOG_TAG = "TrackView";
 
-    TrackView(TrackData data, float scale) {
-        this.data = data;
-        this.sprites = new HashMap<>();
-        this.tileSize = new Size((int) (TILE_WIDTH*scale), (int) (TILE_HEIGHT*scale));
+    TrackView(TrackModel model) {
+        this.model = model;
+        this.data = model.getData();
+        this.sprites = new CoordMap<>();
+        this.tileSize = model.getTileSize();
         update();
     }
 
@@ -31,11 +34,18 @@ class TrackView implements View {
      */
     @Override
     public void close() {
+        if (chunkRenderer != null) {
+            chunkRenderer.close();
+            chunkRenderer = null;
+        }
         data = null;
-        for (Map.Entry<CoordKey, Sprite> entry: sprites.entrySet()) {
-            entry.getValue().close();
+        for (int slot = 0; slot < sprites.capacity(); ++slot) {
+            if (sprites.isOccupied(slot)) {
+                sprites.valueAt(slot).close();
+            }
         }
-        sprites = new HashMap<>();
+        sprites = new CoordMap<>();
+        prevMinX = prevMaxX = prevMinY = prevMaxY = 0;
         tileSize = new Size();
     }
 
@@ -44,300 +54,372 @@ class TrackView implements View {
      * @return
      */
     private Rect getCachedRegion() {
-        Rect cachedRegion = new Rect(Engine2D.GetInstance().getViewport());
+        Rect viewport = Engine2D.GetInstance().getViewport();
 
         // Adding gaps to viewport for caching more sprites around
-        cachedRegion.x = Math.max(0, cachedRegion.x - tileSize.width *3);
-        cachedRegion.width += tileSize.width * 6;
-        cachedRegion.y = Math.max(0, cachedRegion.y - tileSize.height *3);
-        cachedRegion.height += tileSize.height * 6;
+        cachedRegion.setTo(Math.max(0, viewport.x - tileSize.width *3),
+                Math.max(0, viewport.y - tileSize.height *3),
+                viewport.width + tileSize.width * 6,
+                viewport.height + tileSize.height * 6);
 
         return cachedRegion;
     }
 
+    /**
+     * Visit tiles in range A which are not in range B. Ranges are [min, max) of tile coordinates.
+     * Only strips of A sticking out of B are visited, so cost is proportional to the difference.
+     * @param aMinX
+     * @param aMaxX
+     * @param aMinY
+     * @param aMaxY
+     * @param bMinX
+     * @param bMaxX
+     * @param bMinY
+     * @param bMaxY
+     * @param spawn spawn sprites of tiles if true, evict them otherwise
+     */
+    private void streamTiles(int aMinX, int aMaxX, int aMinY, int aMaxY,
+                             int bMinX, int bMaxX, int bMinY, int bMaxY, boolean spawn) {
+        for (int y = aMinY; y < aMaxY; ++y) {
+            if (y < bMinY || y >= bMaxY) {
+                streamTileRow(y, aMinX, aMaxX, spawn);
+            }
+            else {
+                streamTileRow(y, aMinX, Math.min(aMaxX, bMinX), spawn);
+                streamTileRow(y, Math.max(aMinX, bMaxX), aMaxX, spawn);
+            }
+        }
+    }
+
     /**
      *
+     * @param y
+     * @param minX
+     * @param maxX
+     * @param spawn
      */
-    private void cleanupUnusedSprites() {
-        Rect cachedRegion = getCachedRegion();
+    private void streamTileRow(int y, int minX, int maxX, boolean spawn) {
+        for (int x = minX; x < maxX; ++x) {
+            if (spawn) {
+                spawnTileSprite(x, y);
+            }
+            else {
+                Sprite sprite = sprites.remove(CoordKey.pack(x, y));
+                if (sprite != null) {
+                    sprite.close();
+                }
+            }
+        }
+    }
+
+    /**
+     *
+     * @param x
+     * @param y
+     */
+    private void spawnTileSprite(int x, int y) {
+        if (sprites.get(x, y) != null)
+            return;
 
-        Iterator<HashMap.Entry<CoordKey, Sprite>> iter = sprites.entrySet().iterator();
-        while (iter.hasNext()) {
-            HashMap.Entry<CoordKey, Sprite> entry = iter.next();
-            CoordKey key = entry.getKey();
-            Rect spriteRect = new Rect(key.getX()* tileSize.width, key.getY()* tileSize.height,
-                    tileSize.width, tileSize.height);
-            if (!Rect.intersects(cachedRegion, spriteRect)) {
-                Sprite sprite = entry.getValue();
-                sprite.close();
-                iter.remove();
+        Point textureGrid = TEXTURE_GRIDS[textureGrids[y * data.getWidth() + x]];
+
+        Sprite.Builder spriteBuilder =
+            new Sprite.Builder("map_tile.png")
+                    .position(new Point(
+                            x * tileSize.width + tileSize.width /2,
+                            y * tileSize.height + tileSize.height /2))
+                    .size(new Size(tileSize.width, tileSize.height))
+                    .gridSize(new Size(TEXTURE_GRID_COLUMNS, TEXTURE_GRID_ROWS)).smooth(false)
+                    .layer(MAP_LAYER).visible(true);
+        Sprite sprite = spriteBuilder.build();
+        sprite.setGridIndex(textureGrid);
+        sprites.put(x, y, sprite);
+    }
+
+    /**
+     * Resolve texture grid of every tile from its neighbors once, so tile streaming is just
+     * an array read.
+     * @return
+     */
+    private byte[] buildTextureGrids() {
+        int width = data.getWidth(), height = data.getHeight();
+        byte[] textureGrids = new byte[width * height];
+        for (int y = 0; y < height; ++y) {
+            for (int x = 0; x < width; ++x) {
+                int movableMask = 0, boundaryMask = 0;
+                for (int i = 0; i < NEIGHBOR_MASKS.length; ++i) {
+                    int nx = x + NEIGHBOR_OFFSETS[i * 2], ny = y + NEIGHBOR_OFFSETS[i * 2 + 1];
+                    if (data.isMovable(nx, ny)) {
+                        movableMask |= NEIGHBOR_MASKS[i];
+                    }
+                    if (data.isBoundary(nx, ny)) {
+                        boundaryMask |= NEIGHBOR_MASKS[i];
+                    }
+                }
+                textureGrids[y * width + x] =
+                        resolveTextureGrid(data.getTileType(x, y), movableMask, boundaryMask);
             }
         }
+        return textureGrids;
     }
 
-    private boolean isBoundaryTile(Point mapCoord) {
-        Point mapleftCoord = mapCoord.clone().offset(-1, 0);
-        Point mapRightCoord = mapCoord.clone().offset(1, 0);
-        Point mapUpCoord = mapCoord.clone().offset(0, -1);
-        Point mapDownCoord = mapCoord.clone().offset(0, 1);
-        TrackData.TileType tileType = data.getTileType(mapCoord);
-        TrackData.TileType leftTileType = data.getTileType(mapleftCoord);
-        TrackData.TileType rightTileType = data.getTileType(mapRightCoord);
-        TrackData.TileType upTileType = data.getTileType(mapUpCoord);
-        TrackData.TileType downTileType = data.getTileType(mapDownCoord);
-
-        return (leftTileType.movable() || rightTileType.movable() || upTileType.movable() ||
-                downTileType.movable()) && !tileType.movable();
+    /**
+     *
+     * @param x
+     * @param y
+     * @return
+     */
+    private static byte gridIndex(int x, int y) {
+        return (byte) (y * TEXTURE_GRID_COLUMNS + x);
     }
 
-    private Point getTextureGridForTile(Point mapCoord) {
-        Point mapLeftCoord = mapCoord.clone().offset(-1, 0);
-        Point mapRightCoord = mapCoord.clone().offset(1, 0);
-        Point mapUpCoord = mapCoord.clone().offset(0, -1);
-        Point mapDownCoord = mapCoord.clone().offset(0, 1);
-        TrackData.TileType tileType = data.getTileType(mapCoord);
-        TrackData.TileType leftTileType = data.getTileType(mapLeftCoord);
-        TrackData.TileType rightTileType = data.getTileType(mapRightCoord);
-        TrackData.TileType upTileType = data.getTileType(mapUpCoord);
-        TrackData.TileType downTileType = data.getTileType(mapDownCoord);
-        Point textureGrid;
+    /**
+     * Boundary mask only uses 4-neighbors
+     * @param tileType
+     * @param movableMask
+     * @param boundaryMask
+     * @return
+     */
+    private static byte resolveTextureGrid(TrackData.TileType tileType, int movableMask,
+                                           int boundaryMask) {
+        boolean leftMovable = (movableMask & LEFT) != 0;
+        boolean rightMovable = (movableMask & RIGHT) != 0;
+        boolean upMovable = (movableMask & UP) != 0;
+        boolean downMovable = (movableMask & DOWN) != 0;
+        boolean upLeftMovable = (movableMask & UP_LEFT) != 0;
+        boolean upRightMovable = (movableMask & UP_RIGHT) != 0;
+        boolean downLeftMovable = (movableMask & DOWN_LEFT) != 0;
+        boolean downRightMovable = (movableMask & DOWN_RIGHT) != 0;
+        byte textureGrid;
 
         switch (tileType) {
             case GRASS:
             case UNKNOWN:
-                if (leftTileType.movable() && upTileType.movable() && rightTileType.movable()) {
-                    if (data.getTileType(mapCoord.clone().offset(-1, 1)).movable()) {
-                        textureGrid = new Point(2, 12);
+                if (leftMovable && upMovable && rightMovable) {
+                    if (downLeftMovable) {
+                        textureGrid = gridIndex(2, 12);
                     }
-                    else if (data.getTileType(mapCoord.clone().offset(1, 1)).movable()) {
-                        textureGrid = new Point(2,11);
+                    else if (downRightMovable) {
+                        textureGrid = gridIndex(2, 11);
                     }
                     else {
-                        textureGrid = new Point(2, 5);
+                        textureGrid = gridIndex(2, 5);
                     }
                 }
-                else if (leftTileType.movable() && downTileType.movable() && rightTileType.movable()) {
-                    if (data.getTileType(mapCoord.clone().offset(-1, -1)).movable()) {
-                        textureGrid = new Point(0, 11);
+                else if (leftMovable && downMovable && rightMovable) {
+                    if (upLeftMovable) {
+                        textureGrid = gridIndex(0, 11);
                     }
-                    else if (data.getTileType(mapCoord.clone().offset(1, -1)).movable()) {
-                        textureGrid = new Point(0,12);
+                    else if (upRightMovable) {
+                        textureGrid = gridIndex(0, 12);
                     }
                     else {
-                        textureGrid = new Point(0, 5);
+                        textureGrid = gridIndex(0, 5);
                     }
                 }
-                else if (leftTileType.movable() && downTileType.movable() && upTileType.movable()) {
-                    if (data.getTileType(mapCoord.clone().offset(1, -1)).movable()) {
-                        textureGrid = new Point(3, 12);
+                else if (leftMovable && downMovable && upMovable) {
+                    if (upRightMovable) {
+                        textureGrid = gridIndex(3, 12);
                     }
-                    else if (data.getTileType(mapCoord.clone().offset(1, 1)).movable()) {
-                        textureGrid = new Point(3,11);
+                    else if (downRightMovable) {
+                        textureGrid = gridIndex(3, 11);
                     }
                     else {
-                        textureGrid = new Point(3, 5);
+                        textureGrid = gridIndex(3, 5);
                     }
                 }
-                else if (rightTileType.movable() && downTileType.movable() && upTileType.movable()) {
-                    if (data.getTileType(mapCoord.clone().offset(-1, -1)).movable()) {
-                        textureGrid = new Point(1, 12);
+                else if (rightMovable && downMovable && upMovable) {
+                    if (upLeftMovable) {
+                        textureGrid = gridIndex(1, 12);
                     }
-                    else if (data.getTileType(mapCoord.clone().offset(-1, 1)).movable()) {
-                        textureGrid = new Point(1,11);
+                    else if (downLeftMovable) {
+                        textureGrid = gridIndex(1, 11);
                     }
                     else {
-                        textureGrid = new Point(1, 5);
+                        textureGrid = gridIndex(1, 5);
                     }
                 }
-                else if (leftTileType.movable() && upTileType.movable()) {
-                    boolean rightExtend =
-                        data.getTileType(mapCoord.clone().offset(1, -1)).movable();
-                    boolean downExtend =
-                        data.getTileType(mapCoord.clone().offset(-1, 1)).movable();
+                else if (leftMovable && upMovable) {
+                    boolean rightExtend = upRightMovable;
+                    boolean downExtend = downLeftMovable;
                     if (rightExtend && downExtend) {
-                        textureGrid = new Point(3, 13);
+                        textureGrid = gridIndex(3, 13);
                     }
                     else if (rightExtend) {
-                        textureGrid = new Point(3, 8);
+                        textureGrid = gridIndex(3, 8);
                     }
                     else if (downExtend) {
-                        textureGrid = new Point(3, 7);
+                        textureGrid = gridIndex(3, 7);
                     }
                     else {
-                        textureGrid = new Point(3, 3);
+                        textureGrid = gridIndex(3, 3);
                     }
                 }
-                else if (leftTileType.movable() && downTileType.movable()) {
-                    boolean rightExtend =
-                        data.getTileType(mapCoord.clone().offset(1, 1)).movable();
-                    boolean upExtend =
-                        data.getTileType(mapCoord.clone().offset(-1, -1)).movable();
+                else if (leftMovable && downMovable) {
+                    boolean rightExtend = downRightMovable;
+                    boolean upExtend = upLeftMovable;
                     if (rightExtend && upExtend) {
-                        textureGrid = new Point(0, 13);
+                        textureGrid = gridIndex(0, 13);
                     }
                     else if (rightExtend) {
-                        textureGrid = new Point(0, 7);
+                        textureGrid = gridIndex(0, 7);
                     }
                     else if (upExtend) {
-                        textureGrid = new Point(0, 8);
+                        textureGrid = gridIndex(0, 8);
                     }
                     else {
-                        textureGrid = new Point(0, 3);
+                        textureGrid = gridIndex(0, 3);
                     }
                 }
-                else if (rightTileType.movable() && upTileType.movable()) {
-                    boolean leftExtend =
-                        data.getTileType(mapCoord.clone().offset(-1, -1)).movable();
-                    boolean downExtend =
-                        data.getTileType(mapCoord.clone().offset(1, 1)).movable();
+                else if (rightMovable && upMovable) {
+                    boolean leftExtend = upLeftMovable;
+                    boolean downExtend = downRightMovable;
                     if (leftExtend && downExtend) {
-                        textureGrid = new Point(2, 13);
+                        textureGrid = gridIndex(2, 13);
                     }
                     else if (leftExtend) {
-                        textureGrid = new Point(2, 7);
+                        textureGrid = gridIndex(2, 7);
                     }
                     else if (downExtend) {
-                        textureGrid = new Point(2, 8);
+                        textureGrid = gridIndex(2, 8);
                     }
                     else {
-                        textureGrid = new Point(2, 3);
+                        textureGrid = gridIndex(2, 3);
                     }
                 }
-                else if (rightTileType.movable() && downTileType.movable()) {
-                    boolean leftExtend =
-                        data.getTileType(mapCoord.clone().offset(-1, 1)).movable();
-                    boolean upExtend =
-                        data.getTileType(mapCoord.clone().offset(1, -1)).movable();
+                else if (rightMovable && downMovable) {
+                    boolean leftExtend = downLeftMovable;
+                    boolean upExtend = upRightMovable;
                     if (leftExtend && upExtend) {
-                        textureGrid = new Point(1, 13);
+                        textureGrid = gridIndex(1, 13);
                     }
                     else if (leftExtend) {
-                        textureGrid = new Point(1, 8);
+                        textureGrid = gridIndex(1, 8);
                     }
                     else if (upExtend) {
-                        textureGrid = new Point(1, 7);
+                        textureGrid = gridIndex(1, 7);
                     }
                     else {
-                        textureGrid = new Point(1, 3);
+                        textureGrid = gridIndex(1, 3);
                     }
                 }
-                else if (leftTileType.movable()) {
-                    boolean upBoundary = isBoundaryTile(mapUpCoord);
-                    boolean downBoundary = isBoundaryTile(mapDownCoord);
+                else if (leftMovable) {
+                    boolean upBoundary = (boundaryMask & UP) != 0;
+                    boolean downBoundary = (boundaryMask & DOWN) != 0;
 
                     if (!upBoundary && !downBoundary) {
-                        textureGrid = new Point(1, 0);
+                        textureGrid = gridIndex(1, 0);
                     }
                     else if (!upBoundary) {
-                        textureGrid = new Point(1, 10);
+                        textureGrid = gridIndex(1, 10);
                     }
                     else if (!downBoundary) {
-                        textureGrid = new Point(1, 9);
+                        textureGrid = gridIndex(1, 9);
                     }
                     else {
-                        textureGrid = new Point(1, 6);
+                        textureGrid = gridIndex(1, 6);
                     }
                 }
-                else if (upTileType.movable()) {
-                    boolean leftBoundary = isBoundaryTile(mapLeftCoord);
-                    boolean rightBoundary = isBoundaryTile(mapRightCoord);
+                else if (upMovable) {
+                    boolean leftBoundary = (boundaryMask & LEFT) != 0;
+                    boolean rightBoundary = (boundaryMask & RIGHT) != 0;
 
                     if (!leftBoundary && !rightBoundary) {
-                        textureGrid = new Point(1, 0);
+                        textureGrid = gridIndex(1, 0);
                     }
                     else if (!leftBoundary) {
-                        textureGrid = new Point(0, 9);
+                        textureGrid = gridIndex(0, 9);
                     }
                     else if (!rightBoundary) {
-                        textureGrid = new Point(0, 10);
+                        textureGrid = gridIndex(0, 10);
                     }
                     else {
-                        textureGrid = new Point(0, 6);
+                        textureGrid = gridIndex(0, 6);
                     }
                 }
-                else if (rightTileType.movable()) {
-                    boolean upBoundary = isBoundaryTile(mapUpCoord);
-                    boolean downBoundary = isBoundaryTile(mapDownCoord);
+                else if (rightMovable) {
+                    boolean upBoundary = (boundaryMask & UP) != 0;
+                    boolean downBoundary = (boundaryMask & DOWN) != 0;
 
                     if (!upBoundary && !downBoundary) {
-                        textureGrid = new Point(1, 0);
+                        textureGrid = gridIndex(1, 0);
                     }
                     else if (!upBoundary) {
-                        textureGrid = new Point(3, 9);
+                        textureGrid = gridIndex(3, 9);
                     }
                     else if (!downBoundary) {
-                        textureGrid = new Point(3, 10);
+                        textureGrid = gridIndex(3, 10);
                     }
                     else {
-                        textureGrid = new Point(3, 6);
+                        textureGrid = gridIndex(3, 6);
                     }
                 }
-                else if (downTileType.movable()) {
-                    boolean leftBoundary = isBoundaryTile(mapLeftCoord);
-                    boolean rightBoundary = isBoundaryTile(mapRightCoord);
+                else if (downMovable) {
+                    boolean leftBoundary = (boundaryMask & LEFT) != 0;
+                    boolean rightBoundary = (boundaryMask & RIGHT) != 0;
 
                     if (!leftBoundary && !rightBoundary) {
-                        textureGrid = new Point(1, 0);
+                        textureGrid = gridIndex(1, 0);
                     }
                     else if (!leftBoundary) {
-                        textureGrid = new Point(2, 10);
+                        textureGrid = gridIndex(2, 10);
                     }
                     else if (!rightBoundary) {
-                        textureGrid = new Point(2, 9);
+                        textureGrid = gridIndex(2, 9);
                     }
                     else {
-                        textureGrid = new Point(2, 6);
+                        textureGrid = gridIndex(2, 6);
                     }
                 }
                 else {
-                    textureGrid = new Point(1, 0);
+                    textureGrid = gridIndex(1, 0);
                 }
                 break;
 
             case START:
-                textureGrid = new Point(0, 0);
+                textureGrid = gridIndex(0, 0);
                 break;
 
             case END:
-                textureGrid = new Point(0, 0);
+                textureGrid = gridIndex(0, 0);
                 break;
 
             case ROAD:
-                if (!leftTileType.movable() && !upTileType.movable() && !rightTileType.movable()) {
-                    textureGrid = new Point(2, 4);
+                if (!leftMovable && !upMovable && !rightMovable) {
+                    textureGrid = gridIndex(2, 4);
                 }
-                else if (!leftTileType.movable() && !downTileType.movable() && !rightTileType.movable()) {
-                    textureGrid = new Point(0, 4);
+                else if (!leftMovable && !downMovable && !rightMovable) {
+                    textureGrid = gridIndex(0, 4);
                 }
-                else if (!leftTileType.movable() && !downTileType.movable() && !upTileType.movable()) {
-                    textureGrid = new Point(3, 4);
+                else if (!leftMovable && !downMovable && !upMovable) {
+                    textureGrid = gridIndex(3, 4);
                 }
-                else if (!rightTileType.movable() && !downTileType.movable() && !upTileType.movable()) {
-                    textureGrid = new Point(1, 4);
+                else if (!rightMovable && !downMovable && !upMovable) {
+                    textureGrid = gridIndex(1, 4);
                 }
-                else if (!leftTileType.movable() && !upTileType.movable()) {
-                    textureGrid = new Point(3, 2);
+                else if (!leftMovable && !upMovable) {
+                    textureGrid = gridIndex(3, 2);
                 }
-                else if (!leftTileType.movable() && !downTileType.movable()) {
-                    textureGrid = new Point(0, 2);
+                else if (!leftMovable && !downMovable) {
+                    textureGrid = gridIndex(0, 2);
                 }
-                else if (!rightTileType.movable() && !upTileType.movable()) {
-                    textureGrid = new Point(2, 2);
+                else if (!rightMovable && !upMovable) {
+                    textureGrid = gridIndex(2, 2);
                 }
-                else if (!rightTileType.movable() && !downTileType.movable()) {
-                    textureGrid = new Point(1, 2);
+                else if (!rightMovable && !downMovable) {
+                    textureGrid = gridIndex(1, 2);
                 }
                 else {
-                    textureGrid = new Point(0, 0);
+                    textureGrid = gridIndex(0, 0);
                 }
                 break;
 
             case FINISH:
-                textureGrid = new Point(0, 0);
+                textureGrid = gridIndex(0, 0);
                 break;
 
             default:
-                textureGrid = new Point(1, 0);
+                textureGrid = gridIndex(1, 0);
                 break;
         }
 
@@ -352,37 +434,30 @@ class TrackView implements View {
         if (!visible)
             return;
 
-        // clean up unused spries
-        cleanupUnusedSprites();
+        // Chunk renderer takes over per-tile sprites if it's available
+        if (chunkRenderer != null) {
+            chunkRenderer.update(getCachedRegion(), visible);
+            return;
+        }
 
-        // build up sprites
+        // Tile range of cached region
         Rect cachedRegion = getCachedRegion();
-        Size trackDataSize = data.getSize();
-
-        for (int y = cachedRegion.top() / tileSize.height;
-             y < Math.min(cachedRegion.bottom() / tileSize.height, trackDataSize.height);
-             ++y) {
-            for (int x = cachedRegion.left() / tileSize.width;
-                 x < Math.min(cachedRegion.right() / tileSize.width, trackDataSize.width);
-                 ++x) {
-                if (sprites.get(new CoordKey(x, y)) != null)
-                    continue;
-
-                Point textureGrid = getTextureGridForTile(new Point(x, y));
-
-                Sprite.Builder spriteBuilder =
-                    new Sprite.Builder("map_tile.png")
-                            .position(new Point(
-                                    x * tileSize.width + tileSize.width /2,
-                                    y * tileSize.height + tileSize.height /2))
-                            .size(new Size(tileSize.width, tileSize.height))
-                            .gridSize(new Size(4, 14)).smooth(false)
-                            .layer(MAP_LAYER).visible(true);
-                Sprite sprite = spriteBuilder.build();
-                sprite.setGridIndex(textureGrid);
-                sprites.put(new CoordKey(x, y), sprite);
-            }
+        int minX = cachedRegion.left() / tileSize.width;
+        int maxX = Math.min(cachedRegion.right() / tileSize.width, data.getWidth());
+        int minY = cachedRegion.top() / tileSize.height;
+        int maxY = Math.min(cachedRegion.bottom() / tileSize.height, data.getHeight());
+        if (minX == prevMinX && maxX == prevMaxX && minY == prevMinY && maxY == prevMaxY) {
+            return;
         }
+
+        // Evict strips that left the range, then spawn newly exposed strips
+        streamTiles(prevMinX, prevMaxX, prevMinY, prevMaxY, minX, maxX, minY, maxY, false);
+        streamTiles(minX, maxX, minY, maxY, prevMinX, prevMaxX, prevMinY, prevMaxY, true);
+
+        prevMinX = minX;
+        prevMaxX = maxX;
+        prevMinY = minY;
+        prevMaxY = maxY;
     }
 
     /**
@@ -393,19 +468,47 @@ class TrackView implements View {
         if (!visible)
             return;
 
-        for (HashMap.Entry<CoordKey, Sprite> entry : sprites.entrySet()) {
-            entry.getValue().commit();
+        if (chunkRenderer != null) {
+            chunkRenderer.commit();
+            return;
+        }
+
+        for (int slot = 0; slot < sprites.capacity(); ++slot) {
+            if (sprites.isOccupied(slot)) {
+                sprites.valueAt(slot).commit();
+            }
         }
     }
 
+    /**
+     * Number of chunk sprites built so far, for checking that following a car around the
+     * track doesn't keep building them
+     * @return
+     */
+    int getChunkSpriteBuildCount() {
+        return (chunkRenderer != null)? chunkRenderer.getSpriteBuildCount() : 0;
+    }
+
     /**
      *
      */
     @Override
     public void show() {
         visible = true;
-        for (HashMap.Entry<CoordKey, Sprite> entry : sprites.entrySet()) {
-            entry.getValue().show();
+        if (textureGrids == null) {
+            textureGrids = buildTextureGrids();
+        }
+        if (chunkRenderer == null && TrackChunkRenderer.isAvailable()) {
+            chunkRenderer = new TrackChunkRenderer(data, textureGrids, TEXTURE_GRID_COLUMNS,
+                    TEXTURE_GRID_ROWS, tileSize, MAP_LAYER);
+        }
+        if (chunkRenderer != null) {
+            chunkRenderer.show();
+        }
+        for (int slot = 0; slot < sprites.capacity(); ++slot) {
+            if (sprites.isOccupied(slot)) {
+                sprites.valueAt(slot).show();
+            }
         }
     }
 
@@ -415,8 +518,13 @@ class TrackView implements View {
     @Override
     public void hide() {
         visible = false;
-        for (HashMap.Entry<CoordKey, Sprite> entry : sprites.entrySet()) {
-            entry.getValue().hide();
+        if (chunkRenderer != null) {
+            chunkRenderer.hide();
+        }
+        for (int slot = 0; slot < sprites.capacity(); ++slot) {
+            if (sprites.isOccupied(slot)) {
+                sprites.valueAt(slot).hide();
+            }
         }
     }
 
@@ -425,7 +533,7 @@ class TrackView implements View {
      * @return
      */
     public Size getSize() {
-        return new Size(data.getSize()).multiply(tileSize.width, tileSize.height);
+        return model.getSize();
     }
 
     /**
@@ -434,8 +542,7 @@ class TrackView implements View {
      * @return
      */
     RectF getScreenRegionfromTrackCoord(Point pt) {
-        return new RectF(pt.x*tileSize.width, pt.y*tileSize.height,
-                tileSize.width, tileSize.height);
+        return model.getScreenRegionfromTrackCoord(pt);
     }
 
     /**
@@ -444,7 +551,7 @@ class TrackView implements View {
      * @return
      */
     Point getTrackCoordFromScreenCoord(PointF pt) {
-        return new Point(pt).divide(new Point(tileSize.width, tileSize.height));
+        return model.getTrackCoordFromScreenCoord(pt);
     }
 
     /**
@@ -470,78 +577,14 @@ class TrackView implements View {
      * @return
      */
     ArrayList<Point> getRaytracedTileList(PointF start, PointF end) {
-        PointF startpoint = new PointF(start).divide(new PointF(tileSize.width, tileSize.height));
-        PointF endpoint = new PointF(end).divide(new PointF(tileSize.width, tileSize.height));
-
-        // Raytracing code
-        // http://playtechs.blogspot.com/2007/03/raytracing-on-grid.html
-        float dx = Math.abs(endpoint.x - startpoint.x);
-        float dy = Math.abs(endpoint.y - startpoint.y);
-
-        int x = (int)(Math.floor(startpoint.x));
-        int y = (int)(Math.floor(startpoint.y));
-
-        float dt_dx = 1.0f / dx;
-        float dt_dy = 1.0f / dy;
-
-        float t = 0;
-
-        int n = 1;
-        int x_inc, y_inc;
-        float t_next_vertical, t_next_horizontal;
-
-        if (dx == 0) {
-            x_inc = 0;
-            t_next_horizontal = dt_dx; // infinity
-        }
-        else if (endpoint.x > startpoint.x) {
-            x_inc = 1;
-            n += (int)(Math.floor(endpoint.x)) - x;
-            t_next_horizontal = (float) (Math.floor(startpoint.x) + 1 - startpoint.x) * dt_dx;
-        }
-        else {
-            x_inc = -1;
-            n += x - (int)(Math.floor(endpoint.x));
-            t_next_horizontal = (float) (startpoint.x - Math.floor(startpoint.x)) * dt_dx;
-        }
-
-        if (dy == 0) {
-            y_inc = 0;
-            t_next_vertical = dt_dy; // infinity
-        }
-        else if (endpoint.y > startpoint.y) {
-            y_inc = 1;
-            n += (int) (Math.floor(endpoint.y)) - y;
-            t_next_vertical = (float) (Math.floor(startpoint.y) + 1 - startpoint.y) * dt_dy;
-        }
-        else {
-            y_inc = -1;
-            n += y - (int)(Math.floor(endpoint.y));
-            t_next_vertical = (float) (startpoint.y - Math.floor(startpoint.y)) * dt_dy;
-        }
-
-        ArrayList<Point> points = new ArrayList<>();
-        for (; n > 0; --n) {
-            if (x < 0 || y < 0 ||
-                    x >= data.getSize().width ||
-                    y >= data.getSize().height) {
-                continue;
-            }
-
-            // x, y
-            points.add(new Point(x, y));
-
-            if (t_next_vertical < t_next_horizontal) {
-                y += y_inc;
-                t = t_next_vertical;
-                t_next_vertical += dt_dy;
-            }
-            else {
-                x += x_inc;
-                t = t_next_horizontal;
-                t_next_horizontal += dt_dx;
+        final ArrayList<Point> points = new ArrayList<>();
+        model.raytrace(start.x, start.y, end.x, end.y, new TrackModel.TileVisitor() {
+            @Override
+            public boolean visit(int x, int y) {
+                points.add(new Point(x, y));
+                return true;
             }
-        }
+        });
 
         return points;
     }
@@ -554,11 +597,32 @@ class TrackView implements View {
         return tileSize;
     }
 
+    private static final int LEFT = 0x01, RIGHT = 0x02, UP = 0x04, DOWN = 0x08;
+    private static final int UP_LEFT = 0x10, UP_RIGHT = 0x20, DOWN_LEFT = 0x40, DOWN_RIGHT = 0x80;
+    private static final int[] NEIGHBOR_MASKS = {
+            LEFT, RIGHT, UP, DOWN, UP_LEFT, UP_RIGHT, DOWN_LEFT, DOWN_RIGHT
+    };
+    private static final int[] NEIGHBOR_OFFSETS = {
+            -1, 0,  1, 0,  0, -1,  0, 1,  -1, -1,  1, -1,  -1, 1,  1, 1
+    };
+
+    private static final int TEXTURE_GRID_COLUMNS = 4, TEXTURE_GRID_ROWS = 14;
+    private static final Point[] TEXTURE_GRIDS = new Point[TEXTURE_GRID_COLUMNS * TEXTURE_GRID_ROWS];
+    static {
+        for (int i = 0; i < TEXTURE_GRIDS.length; ++i) {
+            TEXTURE_GRIDS[i] = new Point(i % TEXTURE_GRID_COLUMNS, i / TEXTURE_GRID_COLUMNS);
+        }
+    }
+
     private final int MAP_LAYER = 0;
-    private final int TILE_WIDTH = 32, TILE_HEIGHT = 32;
 
+    private TrackModel model;
     private TrackData data;
-    private HashMap<CoordKey, Sprite> sprites;
+    private CoordMap<Sprite> sprites;
+    private byte[] textureGrids;
+    private TrackChunkRenderer chunkRenderer;
+    private Rect cachedRegion = new Rect();
+    private int prevMinX, prevMaxX, prevMinY, prevMaxY;
     private boolean visible;
     private Size tileSize;
 }
@@ -0,0 +1,324 @@
+package com.lifejourney.racingfever;
+
+import com.lifejourney.engine2d.PointF;
+import com.lifejourney.engine2d.Vector2D;
+
+import java.util.ArrayList;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * States of cars captured at the end of tick, stored as structure of arrays. Cars are
+ * referred by index in the list which is captured.
+ *
+ * GameWorld keeps a few of them and publishes one per tick, capturing into one which is
+ * neither published nor pinned. World thread reads the published one directly, as it's never
+ * captured into. Readers on other threads pin it while reading, so that world never captures
+ * into a snapshot being read however long the reader holds it.
+ */
+class WorldSnapshot {
+
+    static final int NO_LANE = -1;
+
+    private static final int CAPTURING = -1;
+
+    WorldSnapshot() {
+        allocate(16);
+    }
+
+    /**
+     *
+     * @param capacity
+     */
+    private void allocate(int capacity) {
+        cars = new Car[capacity];
+        xs = new float[capacity];
+        ys = new float[capacity];
+        velocityXs = new float[capacity];
+        velocityYs = new float[capacity];
+        forceXs = new float[capacity];
+        forceYs = new float[capacity];
+        headings = new float[capacity];
+        radiuses = new float[capacity];
+        powerToMasses = new float[capacity];
+        laps = new int[capacity];
+        waypoints = new int[capacity];
+        lanes = new int[capacity];
+    }
+
+    /**
+     * Capture current states of cars. It should be called while no one mutates them.
+     * @param carList
+     * @param tick
+     */
+    void capture(ArrayList<Car> carList, long tick) {
+        int count = carList.size();
+        if (count > cars.length) {
+            allocate(Math.max(count, cars.length * 2));
+        }
+
+        for (int i = 0; i < count; ++i) {
+            Car car = carList.get(i);
+            PointF position = car.getPosition();
+            Vector2D velocity = car.getVelocity();
+            Vector2D force = car.getForce();
+            Driver driver = car.getDriver();
+
+            cars[i] = car;
+            xs[i] = position.x;
+            ys[i] = position.y;
+            velocityXs[i] = velocity.x;
+            velocityYs[i] = velocity.y;
+            forceXs[i] = force.x;
+            forceYs[i] = force.y;
+            headings[i] = car.getHeadDirection();
+            radiuses[i] = car.getShape().getRadius();
+            powerToMasses[i] = car.getEnginePower() / car.getMass();
+            if (driver != null) {
+                laps[i] = driver.getLap();
+                waypoints[i] = driver.getLastWaypointPassedIndex();
+                lanes[i] = (driver.getPathSelection() != null) ?
+                        driver.getPathSelection().ordinal() : NO_LANE;
+            }
+            else {
+                laps[i] = 0;
+                waypoints[i] = 0;
+                lanes[i] = NO_LANE;
+            }
+        }
+        for (int i = count; i < this.count; ++i) {
+            cars[i] = null;
+        }
+        this.count = count;
+        this.tick = tick;
+    }
+
+    /**
+     * Pin for reading on other thread than world. It fails if world is capturing into it,
+     * which happens only after it's no longer published.
+     * @return true if pinned, it should be unpinned after reading
+     */
+    boolean tryPin() {
+        while (true) {
+            int pinCount = pins.get();
+            if (pinCount == CAPTURING) {
+                return false;
+            }
+            if (pins.compareAndSet(pinCount, pinCount + 1)) {
+                return true;
+            }
+        }
+    }
+
+    /**
+     *
+     */
+    void unpin() {
+        pins.decrementAndGet();
+    }
+
+    /**
+     * Claim for capturing, called by world only
+     * @return false if any reader pins it
+     */
+    boolean tryBeginCapture() {
+        return pins.compareAndSet(0, CAPTURING);
+    }
+
+    /**
+     *
+     */
+    void endCapture() {
+        pins.set(0);
+    }
+
+    /**
+     *
+     * @return
+     */
+    int size() {
+        return count;
+    }
+
+    /**
+     *
+     * @return tick count of world when it's captured
+     */
+    long getTick() {
+        return tick;
+    }
+
+    /**
+     * Car itself is only for identity check, its state should be read from snapshot.
+     * @param index
+     * @return
+     */
+    Car getCar(int index) {
+        return cars[index];
+    }
+
+    /**
+     *
+     * @param index
+     * @return
+     */
+    float getX(int index) {
+        return xs[index];
+    }
+
+    /**
+     *
+     * @param index
+     * @return
+     */
+    float getY(int index) {
+        return ys[index];
+    }
+
+    /**
+     *
+     * @param index
+     * @return
+     */
+    float getVelocityX(int index) {
+        return velocityXs[index];
+    }
+
+    /**
+     *
+     * @param index
+     * @return
+     */
+    float getVelocityY(int index) {
+        return velocityYs[index];
+    }
+
+    /**
+     *
+     * @param index
+     * @return
+     */
+    float getForceX(int index) {
+        return forceXs[index];
+    }
+
+    /**
+     *
+     * @param index
+     * @return
+     */
+    float getForceY(int index) {
+        return forceYs[index];
+    }
+
+    /**
+     *
+     * @param index
+     * @return
+     */
+    Vector2D getPositionVector(int index) {
+        return new Vector2D(xs[index], ys[index]);
+    }
+
+    /**
+     *
+     * @param index
+     * @return
+     */
+    Vector2D getVelocity(int index) {
+        return new Vector2D(velocityXs[index], velocityYs[index]);
+    }
+
+    /**
+     *
+     * @param index
+     * @return
+     */
+    Vector2D getForce(int index) {
+        return new Vector2D(forceXs[index], forceYs[index]);
+    }
+
+    /**
+     * Same as CollidableObject.getFuturePositionVector
+     * @param index
+     * @param nUpdate
+     * @return
+     */
+    Vector2D getFuturePositionVector(int index, int nUpdate) {
+        float x = xs[index], y = ys[index];
+        for (int i = 0; i < nUpdate; ++i) {
+            x += velocityXs[index];
+            y += velocityYs[index];
+        }
+        return new Vector2D(x, y);
+    }
+
+    /**
+     *
+     * @param index
+     * @return
+     */
+    float getHeading(int index) {
+        return headings[index];
+    }
+
+    /**
+     *
+     * @param index
+     * @return
+     */
+    float getRadius(int index) {
+        return radiuses[index];
+    }
+
+    /**
+     *
+     * @param index
+     * @return engine power divided by mass
+     */
+    float getPowerToMass(int index) {
+        return powerToMasses[index];
+    }
+
+    /**
+     *
+     * @param index
+     * @return
+     */
+    int getLap(int index) {
+        return laps[index];
+    }
+
+    /**
+     *
+     * @param index
+     * @return index of the last waypoint passed
+     */
+    int getWaypoint(int index) {
+        return waypoints[index];
+    }
+
+    /**
+     *
+     * @param index
+     * @return ordinal of lane selection of the driver, NO_LANE if there's no driver
+     */
+    int getLane(int index) {
+        return lanes[index];
+    }
+
+    // Number of readers pinning it, or CAPTURING
+    private final AtomicInteger pins = new AtomicInteger();
+
+    private int count;
+    private long tick;
+    private Car[] cars;
+    private float[] xs, ys;
+    private float[] velocityXs, velocityYs;
+    private float[] forceXs, forceYs;
+    private float[] headings;
+    private float[] radiuses;
+    private float[] powerToMasses;
+    private int[] laps;
+    private int[] waypoints;
+    private int[] lanes;
+}